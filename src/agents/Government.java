@@ -1,125 +1,258 @@
-/**
- * 
- */
-package agents;
-
-import java.util.ArrayList;
-import java.util.List;
-
-import environment.Bank;
-import environment.Bank.BankAccount;
-import repast.simphony.engine.watcher.Watch;
-import repast.simphony.engine.watcher.WatcherTriggerSchedule;
-import utilities.Agent;
-import utilities.Properties;
-
-/**
- * @author Diogo L. Costa
- *
- */
-public class Government implements Agent {
-
-	private List<Household> households = new ArrayList<Household>();
-
-	private BankAccount account;
-
-	private boolean redistributed = false;
-
-	private float firmsTax;
-	private float incomeTax;
-
-	private float IRC;
-	private float IVA;
-	private float IRS;
-
-	private float costs;
-
-	/**
-	 * @param contextHouseholds
-	 * @param contextFirms
-	 * 
-	 */
-	public Government() {
-		account = Bank.registerClient(this, 0);
-		firmsTax = Properties.IRC_TAX;
-		incomeTax = Properties.IRS_TAX;
-		IVA = 0;
-		IRS = 0;
-		IRC = 0;
-	}
-
-	public void setFiels(List<Household> contextHouseholds) {
-		households = contextHouseholds;
-	}
-
-	@Watch(watcheeClassName = "environment.LaborMarket", watcheeFieldNames = "laborClose", whenToTrigger = WatcherTriggerSchedule.IMMEDIATE)
-	public void Redistribute() {
-
-		for (Household household : households) {
-			if (!household.isEmployed()) {
-				if (household.getUnemployedTime() <= Properties.UNEMPLOYED_TIME) {
-					Bank.pay(this, household, Math.max(
-							household.getLastWage()
-									* Properties.UNEMPLOYED_BENEFIT_FACTOR,
-							Properties.MIN_BENEFIT * Properties.MIN_WAGE
-									* (1 - Properties.IRS_TAX)));
-				} else if (household.getUnemployedTime() > Properties.UNEMPLOYED_TIME)
-					Bank.pay(this, household, Properties.MIN_BENEFIT
-							* Properties.MIN_WAGE * (1 - Properties.IRS_TAX));
-
-			} else {
-
-				Bank.pay(
-						this,
-						household,
-						Properties.EARNED_TAX_CREDIT
-								* Properties.calculateEarnedTaxCredit(household
-										.getWage()));
-
-			}
-		}
-
-		IRS = 0;
-		IRC = 0;
-		IVA = 0;
-
-		redistributed = !redistributed;
-	}
-
-	public float payIncomeTaxes(BankAccount firmAccount, float salary) {
-		IRS += salary * incomeTax;
-		Bank.transfer(firmAccount, this, salary * incomeTax);
-		return salary - (salary * incomeTax);
-	}
-
-	public void payProfitTaxes(BankAccount firmAccount, float profit) {
-		IRC += profit * firmsTax;
-		Bank.transfer(firmAccount, this, profit * firmsTax);
-	}
-
-	public boolean payVAT(Agent buyer, float goodPrice) {
-		IVA += goodPrice * Properties.IVA_TAX;
-		return Bank.pay(buyer, this, goodPrice * Properties.IVA_TAX);
-	}
-
-	public float getFunds() {
-		return account.getBalance();
-	}
-
-	public float getIRC() {
-		return IRC;
-	}
-
-	public float getIRS() {
-		return IRS;
-	}
-
-	public float getIVA() {
-		return IVA;
-	}
-
-	public float getCosts() {
-		return costs;
-	}
-
-}
+/**
+ * 
+ */
+package agents;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import environment.Bank;
+import environment.Bank.BankAccount;
+import environment.HouseholdStore;
+import environment.TransferJournal.Kind;
+import repast.simphony.engine.watcher.Watch;
+import repast.simphony.engine.watcher.WatcherTriggerSchedule;
+import utilities.Agent;
+import utilities.Configuration;
+import utilities.Money;
+import utilities.Properties;
+
+/**
+ * @author Diogo L. Costa
+ *
+ */
+public class Government implements Agent {
+
+	private HouseholdStore households;
+
+	// The benefit owed to each household, by row, in micro-units, and its
+	// account
+	private long[] benefits = new long[0];
+	private int[] recepients = new int[0];
+	private ForkJoinPool pool;
+
+	private Bank bank;
+	private BankAccount account;
+	private final Configuration configuration;
+
+	private boolean redistributed = false;
+
+	private float firmsTax;
+	private float incomeTax;
+
+	// The taxes collected in the current tick, in micro-units (see Money)
+	private long IRC;
+	private long IVA;
+	private long IRS;
+
+	private long costs;
+
+	/**
+	 * @param bank
+	 *            the bank of the run
+	 * @param configuration
+	 *            the tax rates and benefits of the run
+	 * 
+	 */
+	public Government(Bank bank, Configuration configuration) {
+		this.bank = bank;
+		this.configuration = configuration;
+		account = bank.registerClient(this, 0);
+		firmsTax = configuration.getIRC();
+		incomeTax = configuration.getIRS();
+		IVA = 0;
+		IRS = 0;
+		IRC = 0;
+	}
+
+	public void setFiels(HouseholdStore contextHouseholds) {
+		households = contextHouseholds;
+		recepients = households.getAccounts();
+		benefits = new long[recepients.length];
+
+		if (Properties.PARALLEL_REDISTRIBUTION)
+			pool = new ForkJoinPool(Properties.REDISTRIBUTION_THREADS);
+	}
+
+	@Watch(watcheeClassName = "environment.LaborMarket", watcheeFieldNames = "laborClose", whenToTrigger = WatcherTriggerSchedule.IMMEDIATE)
+	public void Redistribute() {
+
+		int n = recepients.length;
+		if (pool != null)
+			pool.invoke(new Entitlements(0, n));
+		else
+			calculateBenefits(0, n);
+
+		bank.credit(Kind.BENEFIT, account, recepients, benefits, n, pool);
+
+		IRS = 0;
+		IRC = 0;
+		IVA = 0;
+
+		redistributed = !redistributed;
+	}
+
+	/**
+	 * Shuts down the threads computing the benefits, if any, once the run is
+	 * over (see {@link environment.Economy#close()}).
+	 */
+	public void close() {
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	/**
+	 * Computes the benefit owed to each household from {@code from}
+	 * (inclusive) to {@code to} (exclusive): the unemployment benefit to the
+	 * unemployed and the earned income tax credit to the employed.
+	 */
+	private void calculateBenefits(int from, int to) {
+		float minimumBenefit = configuration.getMinBenefit() * Properties.MIN_WAGE * (1 - configuration.getIRS());
+		float unemployedBenefit = configuration.getUnemployedBenefit();
+		float earnedTaxCredit = configuration.getEarnedTaxCredit();
+
+		for (int hh = from; hh < to; hh++) {
+			if (!households.isEmployed(hh)) {
+				if (households.getUnemployedTime(hh) <= Properties.UNEMPLOYED_TIME)
+					benefits[hh] = Money.of(Math.max(households.getLastWage(hh) * unemployedBenefit,
+							minimumBenefit));
+				else
+					benefits[hh] = Money.of(minimumBenefit);
+			} else
+				benefits[hh] = Money
+						.of(earnedTaxCredit * Properties.calculateEarnedTaxCredit(households.getWage(hh)));
+		}
+	}
+
+	private final class Entitlements extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		// Number of households handled in the same task
+		private static final int BATCH = 4096;
+
+		private final int from;
+		private final int to;
+
+		Entitlements(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BATCH)
+				calculateBenefits(from, to);
+			else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Entitlements(from, middle), new Entitlements(middle, to));
+			}
+		}
+	}
+
+	/**
+	 * Withholds the income tax of a salary from the firm's account.
+	 * 
+	 * @param firmAccount
+	 * @param salary
+	 * @return the net salary, in micro-units; the tax and the net salary add up
+	 *         to exactly the salary, so a firm that can afford the salary can
+	 *         afford both
+	 */
+	public long payIncomeTaxes(BankAccount firmAccount, float salary) {
+		long tax = Money.of(salary * incomeTax);
+		IRS += tax;
+		bank.transferMicros(Kind.TAX, firmAccount, account, tax);
+		return Money.of(salary) - tax;
+	}
+
+	public void payProfitTaxes(BankAccount firmAccount, float profit) {
+		IRC += Money.of(profit * firmsTax);
+		bank.transfer(Kind.TAX, firmAccount, this, profit * firmsTax);
+	}
+
+	public boolean payVAT(Agent buyer, float goodPrice) {
+		IVA += Money.of(goodPrice * configuration.getIVA());
+		return bank.pay(Kind.VAT, buyer, this, goodPrice * configuration.getIVA());
+	}
+
+	/**
+	 * Registers the VAT charged on a whole cart, already settled by the
+	 * {@linkplain Bank}.
+	 * 
+	 * @param vat
+	 *            the VAT, in micro-units
+	 */
+	public void postVAT(long vat) {
+		IVA += vat;
+	}
+
+	/**
+	 * Collects the taxes of the {@code office}, the government of a region of
+	 * a sharded run (see {@linkplain environment.Region}): its funds and its
+	 * accumulators are moved to this government.
+	 * 
+	 * @param office
+	 */
+	public void collect(Government office) {
+		bank.sweep(Kind.COLLECTION, office.account, account);
+		IRC += office.IRC;
+		IVA += office.IVA;
+		IRS += office.IRS;
+		costs += office.costs;
+		office.IRC = 0;
+		office.IVA = 0;
+		office.IRS = 0;
+		office.costs = 0;
+	}
+
+	/**
+	 * Writes the accumulators of the government; the tax rates are parameters
+	 * of the run and are not part of its state (see
+	 * {@linkplain environment.Checkpoint}).
+	 */
+	public void writeState(DataOutput out) throws IOException {
+		out.writeLong(IRC);
+		out.writeLong(IVA);
+		out.writeLong(IRS);
+		out.writeLong(costs);
+		out.writeBoolean(redistributed);
+	}
+
+	public void readState(DataInput in) throws IOException {
+		IRC = in.readLong();
+		IVA = in.readLong();
+		IRS = in.readLong();
+		costs = in.readLong();
+		redistributed = in.readBoolean();
+	}
+
+	public float getFunds() {
+		return account.getBalance();
+	}
+
+	@Override
+	public final BankAccount getAccount() {
+		return account;
+	}
+
+	public float getIRC() {
+		return Money.toFloat(IRC);
+	}
+
+	public float getIRS() {
+		return Money.toFloat(IRS);
+	}
+
+	public float getIVA() {
+		return Money.toFloat(IVA);
+	}
+
+	public float getCosts() {
+		return Money.toFloat(costs);
+	}
+
+}
@@ -1,230 +1,371 @@
-/**
- * 
- */
-package agents;
-
-import java.util.ArrayList;
-import java.util.List;
-
-import environment.Bank;
-import environment.Bank.BankAccount;
-import environment.GoodsMarket;
-import environment.LaborMarket;
-import repast.simphony.engine.watcher.Watch;
-import repast.simphony.engine.watcher.WatcherTriggerSchedule;
-import repast.simphony.random.RandomHelper;
-import utilities.Agent;
-import utilities.Good;
-import utilities.JobContract;
-import utilities.Properties;
-
-/**
- * This class represents the Household Agent.<br>
- * It reacts to the rest of the economy's stimuli, therefore, unlike the
- * {@linkplain Firm} Agent, it does not have a predefined sequence of behavior.
- * 
- * @author Diogo L. Costa
- *
- */
-public class Household implements Agent {
-
-	private GoodsMarket goodsMarket;
-	private LaborMarket laborMarket;
-
-	private double education;
-	private float productivity;
-	private double utilityReduction;
-
-	private boolean employed;
-	private int unemployedTime;
-	private float reservationWage;
-	private float lastWage;
-	private JobContract job;
-	private BankAccount account;
-	private int consumed = 0;
-
-	private final float WAGE_REDUCTION;
-
-	/**
-	 * @param money
-	 * @param goodsmarket
-	 * @param labormarket
-	 * @throws InvalidJobContractException
-	 */
-	public Household(GoodsMarket goodsmarket, LaborMarket labormarket,
-			float educationLevel) {
-		reservationWage = Properties.INIT_RESWAGE;
-		account = Bank.registerClient(this, Properties.HOUSEHOLD_FUNDS);
-		job = null;
-		employed = false;
-		productivity = Properties.PRODUCTIVITY_LEVEL;
-		goodsMarket = goodsmarket;
-		laborMarket = labormarket;
-		utilityReduction = RandomHelper.nextDoubleFromTo(
-				Properties.INIT_MIN_UTILITY, Properties.INIT_MAX_UTILITY);
-		education = educationLevel;
-		unemployedTime = 0;
-		lastWage = 0;
-		WAGE_REDUCTION = (float) RandomHelper.nextDoubleFromTo(
-				Properties.LOWER_WAGE_REDUCTION,
-				Properties.UPPER_WAGE_REDUCTION);
-	}
-
-	/**
-	 * Waits for the {@linkplain GoodsMarket} to receive a new stock from the
-	 * {@linkplain Firm} Agents and... //TODO
-	 */
-	@Watch(watcheeClassName = "environment.LaborMarket", watcheeFieldNames = "marketReady", whenToTrigger = WatcherTriggerSchedule.IMMEDIATE)
-	public void jobApplicationStage() {
-
-		if (!isEmployed())
-			laborMarket.joinLaborMarket(this);
-
-		laborMarket.confirmVisit();
-
-	}
-
-	/**
-	 * Waits for the {@linkplain GoodsMarket} to receive a new stock from the
-	 * {@linkplain Firm} Agents and... //TODO
-	 */
-	@Watch(watcheeClassName = "environment.GoodsMarket", watcheeFieldNames = "marketReady", whenToTrigger = WatcherTriggerSchedule.IMMEDIATE)
-	public void needsManagementStage() {
-
-		if (!isEmployed()) {
-
-			reservationWage = Math.max(getUnemployedBenefit(), Math
-					.max(reservationWage * (1 - WAGE_REDUCTION),
-							Properties.MIN_WAGE));
-
-			productivity = productivity
-					* (1 - Properties.PRODUCTIVITY_REDUCTION);
-			unemployedTime++;
-		} else {
-			float currentIncome = job.getPayCheck()
-					+ Properties.calculateEarnedTaxCredit(job.getPayCheck());
-			if (reservationWage < currentIncome)
-				reservationWage = currentIncome;
-
-			productivity += Properties.PRODUCTIVITY_INCREASE * education
-					/ productivity;
-		}
-
-		consumed = 0;
-		float maxUtility = account.getBalance();
-
-		List<Good> checkOut = new ArrayList<Good>();
-
-		List<Good> cart = goodsMarket.getCheapestGood(maxUtility,
-				utilityReduction);
-		checkOut = goodsMarket.checkoutCart(cart, this);
-
-		consumed = checkOut.size();
-
-		goodsMarket.confirmVisit();
-
-	}
-
-	/**
-	 * It receives a notification from a Firm Agent to inform the Household that
-	 * it has been fired.
-	 */
-	public void notifyFire() {
-		setEmployed(false);
-		job = null;
-	}
-
-	/**
-	 * It receives a notification from a Firm Agent to inform the Household that
-	 * it has been hired.
-	 * 
-	 * @param jobContract
-	 *            the {@link JobContract} established between a Firm Agent and
-	 *            the Household.
-	 */
-	public void notifyEmployed(JobContract jobContract) {
-		unemployedTime = 0;
-		job = jobContract;
-		lastWage = job.getPayCheck();
-		setEmployed(true);
-	}
-
-	/**
-	 * @return the employed state
-	 */
-	public final boolean isEmployed() {
-		return employed;
-	}
-
-	/**
-	 * @param employed
-	 *            the employed state to set
-	 */
-	private final void setEmployed(boolean employed) {
-		this.employed = employed;
-	}
-
-	/**
-	 * @return the current balance of its funds
-	 */
-	public final float getBalance() {
-		return account.getBalance();
-	}
-
-	public final float getWage() {
-		if (isEmployed())
-			return job.getPayCheck();
-		else
-			return 0;
-	}
-
-	public final float getReservationWage() {
-		return reservationWage;
-	}
-
-	public final int getConsumption() {
-		return consumed;
-	}
-
-	public final Firm getEmployer() {
-		if (isEmployed())
-			return job.getEmployer();
-		return null;
-	}
-
-	public final float getProductivity() {
-		return productivity;
-	}
-
-	public final double getEducation() {
-		return education;
-	}
-
-	public final float getLastWage() {
-		return lastWage;
-	}
-
-	public final int getUnemployedTime() {
-		return unemployedTime;
-	}
-
-	public final float getETCIncome() {
-		return Properties.EARNED_TAX_CREDIT
-				* Properties.calculateEarnedTaxCredit(getWage());
-	}
-
-	public final float getUnemployedBenefit() {
-		if (unemployedTime > Properties.UNEMPLOYED_TIME) {
-			return Properties.MIN_BENEFIT * Properties.MIN_WAGE
-					* (1 - Properties.IRS_TAX);
-		} else if (unemployedTime > 0)
-			return getLastWage() * Properties.UNEMPLOYED_BENEFIT_FACTOR;
-		else
-			return 0;
-	}
-
-	public final float getIncome() {
-		return getETCIncome() + getUnemployedBenefit()
-				+ (getWage() * (1 - Properties.IRS_TAX));
-	}
-}
+/**
+ * 
+ */
+package agents;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import environment.Bank.BankAccount;
+import environment.Economy;
+import environment.GoodsMarket;
+import environment.HouseholdStore;
+import environment.LaborMarket;
+import environment.Region;
+import environment.StatisticsManager;
+import repast.simphony.engine.watcher.Watch;
+import repast.simphony.engine.watcher.WatcherTriggerSchedule;
+import utilities.Agent;
+import utilities.Cart;
+import utilities.JobContract;
+import utilities.Properties;
+import utilities.RandomStream;
+
+/**
+ * This class represents the Household Agent.<br>
+ * It reacts to the rest of the economy's stimuli, therefore, unlike the
+ * {@linkplain Firm} Agent, it does not have a predefined sequence of behavior.
+ * <br>
+ * Its state is kept in one row of the run's {@linkplain HouseholdStore}.
+ * 
+ * @author Diogo L. Costa
+ *
+ */
+public class Household implements Agent {
+
+	private GoodsMarket goodsMarket;
+	private LaborMarket laborMarket;
+	private StatisticsManager statistics;
+
+	private final HouseholdStore store;
+	private final int row;
+
+	private double education;
+	private double utilityReduction;
+
+	private JobContract job;
+	private BankAccount account;
+	private Cart cart = new Cart();
+	private RandomStream random;
+
+	// Drawn once for each household, see readState(DataInput)
+	private float WAGE_REDUCTION;
+
+	/**
+	 * @param economy
+	 *            the run the household belongs to
+	 * @param region
+	 *            the region of the run whose markets the household visits
+	 * @param educationLevel
+	 */
+	public Household(Economy economy, Region region, float educationLevel) {
+		account = economy.getBank().registerClient(this, Properties.HOUSEHOLD_FUNDS);
+		store = economy.getHouseholdStore();
+		row = store.add(account, Properties.INIT_RESWAGE, Properties.PRODUCTIVITY_LEVEL);
+		job = null;
+		goodsMarket = region.getGoodsMarket();
+		laborMarket = region.getLaborMarket();
+		statistics = economy.getStatistics();
+		random = goodsMarket.newRandomStream();
+		utilityReduction = economy.nextParameter(
+				Properties.INIT_MIN_UTILITY, Properties.INIT_MAX_UTILITY);
+		education = educationLevel;
+		WAGE_REDUCTION = (float) economy.nextParameter(
+				Properties.LOWER_WAGE_REDUCTION,
+				Properties.UPPER_WAGE_REDUCTION);
+	}
+
+	/**
+	 * Creates the stand-in of a household of another partition of a
+	 * distributed run (see {@linkplain environment.Partition}), which applies
+	 * for jobs or shops in this partition on its behalf. It has no funds, and
+	 * its state is copied from the household's (see
+	 * {@link #readState(DataInput)}).
+	 * 
+	 * @param economy
+	 *            the partition's run
+	 * @param region
+	 *            the region whose goods market the stand-in shops in
+	 * @param store
+	 *            the store of the stand-ins, apart from the run's households
+	 */
+	public Household(Economy economy, Region region, HouseholdStore store) {
+		account = economy.getBank().registerClient(this, 0);
+		this.store = store;
+		row = store.add(account, Properties.INIT_RESWAGE, Properties.PRODUCTIVITY_LEVEL);
+		job = null;
+		goodsMarket = region.getGoodsMarket();
+		laborMarket = region.getLaborMarket();
+		statistics = economy.getStatistics();
+	}
+
+	/**
+	 * Waits for the {@linkplain GoodsMarket} to receive a new stock from the
+	 * {@linkplain Firm} Agents and... //TODO
+	 */
+	@Watch(watcheeClassName = "environment.LaborMarket", watcheeFieldNames = "marketReady", whenToTrigger = WatcherTriggerSchedule.IMMEDIATE)
+	public void jobApplicationStage() {
+
+		if (!isEmployed())
+			laborMarket.joinLaborMarket(this);
+
+		laborMarket.confirmVisit();
+
+	}
+
+	/**
+	 * Waits for the {@linkplain GoodsMarket} to receive a new stock from the
+	 * {@linkplain Firm} Agents and... //TODO
+	 */
+	@Watch(watcheeClassName = "environment.GoodsMarket", watcheeFieldNames = "marketReady", whenToTrigger = WatcherTriggerSchedule.IMMEDIATE)
+	public void needsManagementStage() {
+
+		// the stage is then driven by ParallelConsumption
+		if (Properties.PARALLEL_CONSUMPTION)
+			return;
+
+		consume();
+	}
+
+	/**
+	 * The consumption of the {@link #needsManagementStage()}, as run by the
+	 * regions of a sharded run (see {@linkplain Region}).
+	 */
+	public void consume() {
+
+		updateNeeds();
+
+		store.setConsumption(row, 0);
+
+		chooseGoods();
+
+		store.setConsumption(row, goodsMarket.checkoutCart(cart, this));
+
+		goodsMarket.confirmVisit();
+
+	}
+
+	/**
+	 * First half of the {@link #needsManagementStage()}: fills the cart with
+	 * the goods the household wants to buy. It only reads the market and the
+	 * household's own state, so it can run in parallel with other households.
+	 */
+	public void chooseGoods() {
+		float maxUtility = account.getBalance();
+
+		goodsMarket.getCheapestGood(maxUtility, utilityReduction, cart, random);
+	}
+
+	/**
+	 * Second half of the {@link #needsManagementStage()}: updates the
+	 * household's needs and buys the goods chosen in {@link #chooseGoods()}
+	 * that are still for sale.
+	 */
+	public void buyGoods() {
+
+		updateNeeds();
+
+		store.setConsumption(row, goodsMarket.checkoutCart(cart, this));
+
+		goodsMarket.confirmVisit();
+	}
+
+	/**
+	 * Buys goods for the household a stand-in stands for, with the funds it
+	 * was given. The household's needs are updated in its own partition.
+	 * 
+	 * @return the amount of goods bought
+	 */
+	public int shop() {
+		chooseGoods();
+		return goodsMarket.checkoutCart(cart, this);
+	}
+
+	/**
+	 * It receives a notification that its stand-in in another partition
+	 * bought {@code goods} for it, see {@link #shop()}.
+	 * 
+	 * @param goods
+	 */
+	public void notifyShopping(int goods) {
+		store.setConsumption(row, goods);
+	}
+
+	private void updateNeeds() {
+
+		if (!isEmployed()) {
+
+			setReservationWage(Math.max(getUnemployedBenefit(), Math
+					.max(getReservationWage() * (1 - WAGE_REDUCTION),
+							Properties.MIN_WAGE)));
+
+			store.setProductivity(row, getProductivity()
+					* (1 - Properties.PRODUCTIVITY_REDUCTION));
+			store.setUnemployedTime(row, getUnemployedTime() + 1);
+		} else {
+			float currentIncome = getWage()
+					+ Properties.calculateEarnedTaxCredit(getWage());
+			if (getReservationWage() < currentIncome)
+				setReservationWage(currentIncome);
+
+			float productivity = getProductivity();
+			store.setProductivity(row, (float) (productivity
+					+ Properties.PRODUCTIVITY_INCREASE * education
+					/ productivity));
+		}
+	}
+
+	/**
+	 * It receives a notification from a Firm Agent to inform the Household that
+	 * it has been fired.
+	 */
+	public void notifyFire() {
+		setEmployed(false);
+		store.setWage(row, 0);
+		job = null;
+	}
+
+	/**
+	 * It receives a notification from a Firm Agent to inform the Household that
+	 * it has been hired.
+	 * 
+	 * @param jobContract
+	 *            the {@link JobContract} established between a Firm Agent and
+	 *            the Household.
+	 */
+	public void notifyEmployed(JobContract jobContract) {
+		store.setUnemployedTime(row, 0);
+		job = jobContract;
+		store.setWage(row, job.getPayCheck());
+		store.setLastWage(row, job.getPayCheck());
+		setEmployed(true);
+	}
+
+	/**
+	 * It receives a notification from the {@link JobContract} of the
+	 * Household that its pay check has changed.
+	 * 
+	 * @param jobContract
+	 */
+	public void notifyPayCheck(JobContract jobContract) {
+		if (job == jobContract)
+			store.setWage(row, job.getPayCheck());
+	}
+
+	/**
+	 * @return the employed state
+	 */
+	public final boolean isEmployed() {
+		return store.isEmployed(row);
+	}
+
+	/**
+	 * @param employed
+	 *            the employed state to set
+	 */
+	private final void setEmployed(boolean employed) {
+		store.setEmployed(row, employed);
+	}
+
+	/**
+	 * Writes the state of the household that is not kept in the
+	 * {@linkplain HouseholdStore}; its job is written by its employer.
+	 */
+	public void writeState(DataOutput out) throws IOException {
+		out.writeDouble(education);
+		out.writeDouble(utilityReduction);
+		out.writeFloat(WAGE_REDUCTION);
+		out.writeLong(random.getSeed());
+		out.writeLong(random.getGamma());
+	}
+
+	/**
+	 * Reads the state written by {@link #writeState(DataOutput)}, including
+	 * the position of its random stream.
+	 */
+	public void readState(DataInput in) throws IOException {
+		education = in.readDouble();
+		utilityReduction = in.readDouble();
+		WAGE_REDUCTION = in.readFloat();
+		long seed = in.readLong();
+		random = new RandomStream(seed, in.readLong());
+	}
+
+	/**
+	 * @return the current balance of its funds
+	 */
+	public final float getBalance() {
+		return account.getBalance();
+	}
+
+	@Override
+	public final BankAccount getAccount() {
+		return account;
+	}
+
+	public final float getWage() {
+		return store.getWage(row);
+	}
+
+	public final float getReservationWage() {
+		return store.getReservationWage(row);
+	}
+
+	/**
+	 * @param wage
+	 *            the reservation wage to set
+	 */
+	private final void setReservationWage(float wage) {
+		float reservationWage = getReservationWage();
+		if (wage != reservationWage) {
+			statistics.reservationWageChanged(reservationWage, wage);
+			store.setReservationWage(row, wage);
+		}
+	}
+
+	public final int getConsumption() {
+		return store.getConsumption(row);
+	}
+
+	public final Firm getEmployer() {
+		if (isEmployed())
+			return job.getEmployer();
+		return null;
+	}
+
+	public final float getProductivity() {
+		return store.getProductivity(row);
+	}
+
+	public final double getEducation() {
+		return education;
+	}
+
+	public final float getLastWage() {
+		return store.getLastWage(row);
+	}
+
+	public final int getUnemployedTime() {
+		return store.getUnemployedTime(row);
+	}
+
+	public final float getETCIncome() {
+		return store.getETCIncome(row);
+	}
+
+	public final float getUnemployedBenefit() {
+		return store.getUnemployedBenefit(row);
+	}
+
+	public final float getIncome() {
+		return store.getIncome(row);
+	}
+
+	/**
+	 * @return the row of the Household in the {@linkplain HouseholdStore}
+	 */
+	public final int getRow() {
+		return row;
+	}
+}
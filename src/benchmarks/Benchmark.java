@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package benchmarks;
+
+import environment.HeadlessEngine;
+
+/**
+ * A benchmark of one of the simulation's hot paths.<br>
+ * Each benchmark is given its own {@linkplain HeadlessEngine}, already run for
+ * a few ticks so that the economy is in a realistic state. The harness then
+ * repeats iterations made of an untimed {@link #prepare()} followed by a timed
+ * {@link #operate()}. The results of the code under test are handed to
+ * {@link #consume(long)}, so that the JIT cannot drop it as dead code.
+ *
+ */
+public abstract class Benchmark {
+
+	private final String name;
+	private final String unit;
+	protected HeadlessEngine engine;
+	private long consumed;
+
+	/**
+	 * @param name
+	 *            the name under which the results are reported
+	 * @param unit
+	 *            what one operation stands for, e.g. a household's visit
+	 */
+	protected Benchmark(String name, String unit) {
+		this.name = name;
+		this.unit = unit;
+	}
+
+	/**
+	 * Called once, before the first iteration.
+	 *
+	 * @param engine
+	 *            the engine driving the economy under test
+	 */
+	protected void setUp(HeadlessEngine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Brings the economy to the state the next {@link #operate()} expects.
+	 * Not timed.
+	 */
+	protected abstract void prepare();
+
+	/**
+	 * Runs the code under test. Timed.
+	 *
+	 * @return the number of operations performed
+	 */
+	protected abstract int operate();
+
+	/**
+	 * Folds a result of the code under test into a value the harness reads
+	 * once the benchmark is over.
+	 */
+	protected final void consume(long value) {
+		consumed = 31 * consumed + value;
+	}
+
+	protected final void consume(double value) {
+		consume(Double.doubleToLongBits(value));
+	}
+
+	/**
+	 * @return every value consumed so far, folded together
+	 */
+	final long getConsumed() {
+		return consumed;
+	}
+
+	public final String getName() {
+		return name;
+	}
+
+	public final String getUnit() {
+		return unit;
+	}
+
+}
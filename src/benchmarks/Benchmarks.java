@@ -0,0 +1,444 @@
+/**
+ *
+ */
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import agents.Firm;
+import agents.Government;
+import agents.Household;
+import environment.Bank;
+import environment.GoodsMarket;
+import environment.HeadlessEngine;
+import environment.HeadlessEngine.Stage;
+import environment.Region;
+import environment.TransferJournal.Kind;
+import utilities.Cart;
+import utilities.Configuration;
+import utilities.Inventory;
+import utilities.Properties;
+import utilities.RandomStream;
+
+/**
+ * Benchmarks the hot paths of the simulation, each one separately:
+ * <ul>
+ * <li>{@code goods.cheapest} - {@link GoodsMarket#getCheapestGood}, per
+ * household</li>
+ * <li>{@code goods.checkout} - {@link GoodsMarket#checkoutCart}, per
+ * household</li>
+ * <li>{@code labor.applicants} - {@link environment.LaborMarket#getApplicants()}
+ * once every household applied, per labor market</li>
+ * <li>{@code firm.resources} - the firms' resources management, i.e. their
+ * recruiting stage hiring through
+ * {@link environment.LaborMarket#hire(float)}, per firm</li>
+ * <li>{@code bank.pay} - {@link Bank#pay}, per payment</li>
+ * <li>{@code government.redistribute} - {@link Government#Redistribute()}</li>
+ * <li>{@code statistics} -
+ * {@link environment.StatisticsManager#calculateStatistics()}</li>
+ * </ul>
+ * For every benchmark the time and the bytes allocated per operation are
+ * reported, along with the allocation rate and the number of garbage
+ * collections over the measured iterations.<br>
+ * <br>
+ * The harness works as JMH does, without depending on it: each benchmark runs
+ * in fresh JVMs (forks), so that the code compiled for one benchmark does not
+ * bias the next one, and each fork runs its own warm-up iterations before the
+ * measured ones. The iterations of every fork are reported together.<br>
+ * <br>
+ * The size of the economy is set with the usual run parameters
+ * ({@code -Dhhnumber}, {@code -Dfirmsnumber}) and the benchmarks with:
+ * <ul>
+ * <li>{@code bench.stock} - goods put to sale by each firm in the goods market
+ * benchmarks (default 100)</li>
+ * <li>{@code bench.tiers} - price tiers of that stock (default 5)</li>
+ * <li>{@code bench.ticks} - ticks run before the benchmark starts (default
+ * 20)</li>
+ * <li>{@code bench.forks} - JVMs each benchmark is run in, 0 to run them all
+ * in this one (default 1)</li>
+ * <li>{@code bench.warmup} - untimed iterations of each fork (default 10)</li>
+ * <li>{@code bench.iterations} - timed iterations of each fork (default
+ * 30)</li>
+ * <li>{@code bench.seed} - the seed of the runs (default 1)</li>
+ * <li>{@code bench.filter} - a regular expression selecting the benchmarks to
+ * run (default all)</li>
+ * </ul>
+ *
+ */
+public class Benchmarks {
+
+	private static final int STOCK = Integer.getInteger("bench.stock", 100);
+	private static final int TIERS = Integer.getInteger("bench.tiers", 5);
+	private static final int TICKS = Integer.getInteger("bench.ticks", 20);
+	private static final int WARMUP = Integer.getInteger("bench.warmup", 10);
+	private static final int ITERATIONS = Integer.getInteger("bench.iterations", 30);
+	private static final long SEED = Long.getLong("bench.seed", 1);
+
+	// set in the JVMs forked to run a single benchmark
+	private static final String FORKED = "bench.forked";
+
+	private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+	// where the values consumed by the benchmarks end up
+	private static volatile long consumed;
+
+	/**
+	 * The iterations of a benchmark, measured in one or more forks.
+	 */
+	private static final class Measurement {
+		final double[] time;
+		final long ops, elapsed, bytes, collections;
+
+		Measurement(double[] time, long ops, long elapsed, long bytes, long collections) {
+			this.time = time;
+			this.ops = ops;
+			this.elapsed = elapsed;
+			this.bytes = bytes;
+			this.collections = collections;
+		}
+
+		Measurement add(Measurement other) {
+			double[] both = new double[time.length + other.time.length];
+			System.arraycopy(time, 0, both, 0, time.length);
+			System.arraycopy(other.time, 0, both, time.length, other.time.length);
+			return new Measurement(both, ops + other.ops, elapsed + other.elapsed, bytes + other.bytes,
+					collections + other.collections);
+		}
+
+		/**
+		 * @return the line a fork writes for its parent
+		 */
+		String format() {
+			StringBuilder line = new StringBuilder();
+			line.append(ops).append(' ').append(elapsed).append(' ').append(bytes).append(' ').append(collections);
+			for (double t : time)
+				line.append(' ').append(t);
+			return line.toString();
+		}
+
+		static Measurement parse(String line) {
+			String[] values = line.trim().split(" ");
+			double[] time = new double[values.length - 4];
+			for (int i = 0; i < time.length; i++)
+				time[i] = Double.parseDouble(values[4 + i]);
+			return new Measurement(time, Long.parseLong(values[0]), Long.parseLong(values[1]),
+					Long.parseLong(values[2]), Long.parseLong(values[3]));
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int forks = Integer.getInteger("bench.forks", 1);
+		boolean forked = Boolean.getBoolean(FORKED);
+		String filter = System.getProperty("bench.filter", ".*");
+
+		Configuration configuration = Configuration.fromParameters();
+
+		if (!forked) {
+			System.out.println("# " + configuration.getHouseholdsNumber() + " households, "
+					+ configuration.getFirmsNumber() + " firms, " + STOCK + " goods per firm in " + TIERS
+					+ " tiers");
+			System.out.println("# " + Math.max(forks, 1) + " fork(s) of " + WARMUP + " warm-up and " + ITERATIONS
+					+ " measured iterations");
+			System.out.println(String.format("%-24s %-10s %14s %14s %14s %12s %10s %6s", "benchmark", "unit",
+					"ns/op", "error", "ops/s", "B/op", "MB/s", "gc"));
+		}
+
+		for (Benchmark benchmark : benchmarks()) {
+			if (!benchmark.getName().matches(filter))
+				continue;
+
+			if (forked)
+				System.out.println(FORKED + " " + measure(benchmark, configuration).format());
+			else if (forks > 0)
+				report(benchmark, fork(benchmark, forks));
+			else
+				report(benchmark, measure(benchmark, configuration));
+		}
+	}
+
+	/**
+	 * Runs the {@code benchmark} in this JVM.
+	 */
+	private static Measurement measure(Benchmark benchmark, Configuration configuration) {
+		HeadlessEngine engine = new HeadlessEngine(configuration, SEED);
+		try {
+			for (int i = 0; i < TICKS; i++)
+				engine.step();
+			benchmark.setUp(engine);
+
+			for (int i = 0; i < WARMUP; i++) {
+				benchmark.prepare();
+				benchmark.operate();
+			}
+
+			double[] time = new double[ITERATIONS];
+			long totalOps = 0, totalTime = 0, totalBytes = 0;
+			long collections = collections();
+			for (int i = 0; i < ITERATIONS; i++) {
+				benchmark.prepare();
+				long bytes = allocatedBytes();
+				long start = System.nanoTime();
+				int ops = benchmark.operate();
+				long elapsed = System.nanoTime() - start;
+				bytes = allocatedBytes() - bytes;
+
+				time[i] = (double) elapsed / ops;
+				totalOps += ops;
+				totalTime += elapsed;
+				totalBytes += bytes;
+			}
+			collections = collections() - collections;
+
+			consumed ^= benchmark.getConsumed();
+			return new Measurement(time, totalOps, totalTime, totalBytes, collections);
+		} finally {
+			engine.getEconomy().close();
+		}
+	}
+
+	/**
+	 * Runs the {@code benchmark} in {@code forks} new JVMs, one after the
+	 * other, with the options and the class path of this one.
+	 *
+	 * @throws IOException
+	 *             if a fork cannot be started or fails
+	 */
+	private static Measurement fork(Benchmark benchmark, int forks) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-D" + FORKED + "=true");
+		command.add("-Dbench.filter=" + Pattern.quote(benchmark.getName()));
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Benchmarks.class.getName());
+
+		Measurement total = null;
+		for (int i = 0; i < forks; i++) {
+			Process process = new ProcessBuilder(command).redirectError(Redirect.INHERIT).start();
+			Measurement measurement = null;
+			BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.startsWith(FORKED + " "))
+						measurement = Measurement.parse(line.substring(FORKED.length() + 1));
+				}
+			} finally {
+				in.close();
+			}
+
+			if (process.waitFor() != 0 || measurement == null)
+				throw new IOException("The fork " + (i + 1) + " of " + benchmark.getName() + " failed");
+			total = total == null ? measurement : total.add(measurement);
+		}
+		return total;
+	}
+
+	private static List<Benchmark> benchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		benchmarks.add(new MarketBenchmark("goods.cheapest") {
+			@Override
+			protected void prepare() {
+				engine.step();
+				restock();
+			}
+
+			@Override
+			protected int operate() {
+				List<Household> households = engine.getEconomy().getHouseholds();
+				for (int i = 0; i < households.size(); i++)
+					consume(market.getCheapestGood(households.get(i).getBalance(), UTILITY_REDUCTION, carts[i],
+							random).size());
+				return households.size();
+			}
+		});
+
+		benchmarks.add(new MarketBenchmark("goods.checkout") {
+			@Override
+			protected void prepare() {
+				engine.step();
+				restock();
+
+				List<Household> households = engine.getEconomy().getHouseholds();
+				for (int i = 0; i < households.size(); i++)
+					market.getCheapestGood(households.get(i).getBalance(), UTILITY_REDUCTION, carts[i], random);
+			}
+
+			@Override
+			protected int operate() {
+				List<Household> households = engine.getEconomy().getHouseholds();
+				for (int i = 0; i < households.size(); i++)
+					consume(market.checkoutCart(carts[i], households.get(i)));
+				return households.size();
+			}
+		});
+
+		benchmarks.add(new StageBenchmark("labor.applicants", "market", Stage.RECRUITING) {
+			@Override
+			protected int operate() {
+				List<Region> regions = engine.getEconomy().getRegions();
+				for (int i = 0; i < regions.size(); i++)
+					consume(regions.get(i).getLaborMarket().getApplicants().size());
+				return regions.size();
+			}
+		});
+
+		benchmarks.add(new StageBenchmark("firm.resources", "firm", Stage.RECRUITING) {
+			@Override
+			protected int operate() {
+				List<Firm> firms = engine.getEconomy().getFirms();
+				for (int i = 0; i < firms.size(); i++) {
+					Firm firm = firms.get(i);
+					firm.recruitingStage();
+					consume(firm.getNumberOfEmployees());
+				}
+				ranStage();
+				return firms.size();
+			}
+		});
+
+		benchmarks.add(new Benchmark("bank.pay", "payment") {
+			@Override
+			protected void prepare() {
+				engine.step();
+			}
+
+			@Override
+			protected int operate() {
+				Bank bank = engine.getEconomy().getBank();
+				Government government = engine.getEconomy().getGovernment();
+				List<Household> households = engine.getEconomy().getHouseholds();
+				for (int i = 0; i < households.size(); i++) {
+					Household hh = households.get(i);
+					consume(bank.pay(Kind.BENEFIT, government, hh, 1) ? 1 : 0);
+					consume(bank.pay(Kind.TAX, hh, government, 1) ? 1 : 0);
+				}
+				return 2 * households.size();
+			}
+		});
+
+		benchmarks.add(new StageBenchmark("government.redistribute", Stage.REDISTRIBUTION));
+
+		benchmarks.add(new Benchmark("statistics", "tick") {
+			@Override
+			protected void prepare() {
+				engine.step();
+			}
+
+			@Override
+			protected int operate() {
+				engine.getEconomy().getStatistics().calculateStatistics();
+				consume(engine.getEconomy().getStatistics().getGDP());
+				return 1;
+			}
+		});
+
+		return benchmarks;
+	}
+
+	/**
+	 * Gives every open firm a synthetic stock, starting at the firm's lowest
+	 * price, and puts it up for sale, so that the goods market benchmarks do
+	 * not depend on how much the firms happened to produce. The stock replaces
+	 * the firm's own, so the goods sold are taken out of the firm's stock as in
+	 * a run.
+	 */
+	private abstract static class MarketBenchmark extends Benchmark {
+
+		static final double UTILITY_REDUCTION = (Properties.INIT_MIN_UTILITY + Properties.INIT_MAX_UTILITY) / 2;
+
+		GoodsMarket market;
+		Cart[] carts;
+		RandomStream random;
+
+		MarketBenchmark(String name) {
+			super(name, "household");
+		}
+
+		@Override
+		protected void setUp(HeadlessEngine engine) {
+			super.setUp(engine);
+			market = engine.getEconomy().getGoodsMarket();
+			random = market.newRandomStream();
+			carts = new Cart[engine.getEconomy().getHouseholds().size()];
+			for (int i = 0; i < carts.length; i++)
+				carts[i] = new Cart();
+		}
+
+		void restock() {
+			market.clearMarket();
+			for (Firm firm : engine.getEconomy().getFirms()) {
+				float price = firm.getLowestPrice();
+				if (!firm.getStatus() || price <= 0)
+					continue;
+
+				Inventory stock = firm.getStock();
+				stock.sortAndTruncate(0);
+				for (int tier = 0; tier < TIERS; tier++)
+					stock.add(price * (1 + 0.05f * tier), STOCK / TIERS + (tier < STOCK % TIERS ? 1 : 0));
+				market.putToSale(firm, stock);
+			}
+		}
+	}
+
+	private static void report(Benchmark benchmark, Measurement measurement) {
+		double[] time = measurement.time;
+		double mean = 0;
+		for (double t : time)
+			mean += t;
+		mean /= time.length;
+
+		double variance = 0;
+		for (double t : time)
+			variance += (t - mean) * (t - mean);
+		double error = time.length > 1 ? Math.sqrt(variance / (time.length - 1)) : 0;
+
+		double seconds = measurement.elapsed / 1e9;
+		double opsPerSecond = measurement.ops / seconds;
+		String bytesPerOp = THREADS != null ? String.format("%.1f", (double) measurement.bytes / measurement.ops)
+				: "n/a";
+		String rate = THREADS != null ? String.format("%.1f", measurement.bytes / seconds / (1 << 20)) : "n/a";
+
+		System.out.println(String.format("%-24s %-10s %14.1f %14.1f %14.1f %12s %10s %6d", benchmark.getName(),
+				benchmark.getUnit(), mean, error, opsPerSecond, bytesPerOp, rate, measurement.collections));
+	}
+
+	/**
+	 * @return the bytes allocated so far by the current thread, or 0 if the
+	 *         JVM cannot tell
+	 */
+	private static long allocatedBytes() {
+		return THREADS != null ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+			if (counter.isThreadAllocatedMemorySupported()) {
+				counter.setThreadAllocatedMemoryEnabled(true);
+				return counter;
+			}
+		}
+		return null;
+	}
+
+	private static long collections() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+}
@@ -0,0 +1,69 @@
+/**
+ *
+ */
+package benchmarks;
+
+import environment.HeadlessEngine;
+import environment.HeadlessEngine.Stage;
+
+/**
+ * Times a whole stage of the economic cycle. Every iteration finishes the
+ * previous cycle and runs the current one up to the stage under test, so that
+ * the economy keeps evolving tick by tick.<br>
+ * A benchmark may time only part of the stage instead, by overriding
+ * {@link #operate()}: unless it calls {@link #ranStage()}, the stage itself is
+ * then run, untimed, by the next {@link #prepare()}.
+ *
+ */
+class StageBenchmark extends Benchmark {
+
+	private final Stage stage;
+	// the next stage of the cycle to run, -1 before the first iteration
+	private int next = -1;
+
+	StageBenchmark(String name, Stage stage) {
+		this(name, "stage", stage);
+	}
+
+	StageBenchmark(String name, String unit, Stage stage) {
+		super(name, unit);
+		this.stage = stage;
+	}
+
+	@Override
+	protected void prepare() {
+		Stage[] stages = Stage.values();
+
+		if (next >= 0) {
+			for (int i = next; i < stages.length; i++)
+				engine.runStage(stages[i]);
+		}
+
+		for (int i = 0; i < stage.ordinal(); i++)
+			engine.runStage(stages[i]);
+		next = stage.ordinal();
+	}
+
+	@Override
+	protected int operate() {
+		engine.runStage(stage);
+		ranStage();
+		return 1;
+	}
+
+	/**
+	 * Tells that the work of the stage under test was done by
+	 * {@link #operate()}, e.g. agent by agent, so that the next
+	 * {@link #prepare()} carries on with the following stage.
+	 */
+	protected final void ranStage() {
+		next = stage.ordinal() + 1;
+	}
+
+	@Override
+	protected void setUp(HeadlessEngine engine) {
+		super.setUp(engine);
+		next = -1;
+	}
+
+}
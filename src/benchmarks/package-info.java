@@ -0,0 +1,5 @@
+/**
+ * Benchmarks of the simulation's hot paths, run on economies driven by the
+ * {@linkplain environment.HeadlessEngine}. See {@linkplain Benchmarks}.
+ */
+package benchmarks;
\ No newline at end of file
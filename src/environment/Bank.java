@@ -1,84 +1,435 @@
-/**
- * 
- */
-package environment;
-
-import java.util.HashMap;
-import java.util.Map;
-
-import agents.Government;
-import utilities.Agent;
-
-/**
- * @author Diogo L. Costa
- *
- */
-public final class Bank {
-
-	public final static class BankAccount {
-		private float funds;
-
-		private BankAccount(float money) {
-			this.funds = money;
-		}
-
-		/**
-		 * @return the funds
-		 */
-		public final float getBalance() {
-			return funds;
-		}
-
-		/**
-		 * @param funds
-		 *            the funds to set
-		 */
-		private final void setFunds(float funds) {
-			this.funds = funds;
-		}
-
-	}
-
-	private static Map<Agent, BankAccount> clients = new HashMap<Agent, BankAccount>();
-
-	public static BankAccount registerClient(Agent ent, float money) {
-		BankAccount account = new BankAccount(money);
-		clients.put(ent, account);
-		return account;
-
-	}
-
-	private static void deposit(Agent recepient, float amount) {
-		BankAccount account = clients.get(recepient);
-		account.setFunds(account.getBalance() + amount);
-	}
-
-	public static boolean transfer(BankAccount drawee, Agent recepient, float amount) {
-
-		if (drawee.getBalance() - amount >= 0) {
-			drawee.setFunds(drawee.getBalance() - amount);
-			deposit(recepient, amount);
-			return true;
-		}
-		return false;
-	}
-
-	public static boolean pay(Agent drawee, Agent recepient, float amount) {
-
-		// The government always pays what it owes, which means it can incur in debt
-		if (drawee instanceof Government) {
-			BankAccount govern = clients.get(drawee);
-			BankAccount household = clients.get(recepient);
-			govern.setFunds(govern.getBalance() - amount);
-			household.setFunds(household.getBalance() + amount);
-			return true;
-		} else {
-			BankAccount draweeAcc = clients.get(drawee);
-			return transfer(draweeAcc, recepient, amount);
-		}
-	}
-
-	protected static void clear() {
-		clients = new HashMap<Agent, BankAccount>();
-	}
-}
+/**
+ * 
+ */
+package environment;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import agents.Government;
+import environment.TransferJournal.Kind;
+import utilities.Agent;
+import utilities.Money;
+
+/**
+ * The Bank keeps the ledger of one run of the simulation (see
+ * {@linkplain Economy}).<br>
+ * Every client is given a dense integer account id when it registers, and all
+ * balances live in a single primitive array indexed by that id, so that a
+ * payment is a pair of array accesses rather than map lookups.<br>
+ * The balances are fixed-point {@code long} amounts of micro-units (see
+ * {@linkplain Money}): the amounts paid are rounded once to the micro-unit,
+ * and every sum of balances, taxes or payments is then exact and independent
+ * of the order it is computed in.<br>
+ * Every payment is made for a {@linkplain Kind}, and is recorded in the
+ * {@linkplain TransferJournal} of the bank, if it has one.
+ * 
+ * @author Diogo L. Costa
+ *
+ */
+public final class Bank {
+
+	public final class BankAccount {
+		private final int id;
+
+		private BankAccount(int id) {
+			this.id = id;
+		}
+
+		/**
+		 * @return the funds
+		 */
+		public final float getBalance() {
+			return Money.toFloat(balances[id]);
+		}
+
+		/**
+		 * @return the funds, in micro-units
+		 */
+		public final long getMicros() {
+			return balances[id];
+		}
+
+		/**
+		 * @return the position of this account in the ledger
+		 */
+		public final int getId() {
+			return id;
+		}
+
+	}
+
+	private long[] balances = new long[64];
+	private int accounts = 0;
+	private TransferJournal journal;
+
+	Bank() {
+	}
+
+	public BankAccount registerClient(Agent ent, float money) {
+		if (accounts == balances.length) {
+			long[] ledger = new long[balances.length * 2];
+			System.arraycopy(balances, 0, ledger, 0, accounts);
+			balances = ledger;
+		}
+		balances[accounts] = Money.of(money);
+		return new BankAccount(accounts++);
+
+	}
+
+	void writeState(DataOutput out) throws IOException {
+		out.writeInt(accounts);
+		for (int i = 0; i < accounts; i++)
+			out.writeLong(balances[i]);
+	}
+
+	void readState(DataInput in) throws IOException {
+		int count = in.readInt();
+		if (count != accounts)
+			throw new IOException("The checkpoint holds " + count + " accounts, the bank " + accounts);
+		for (int i = 0; i < accounts; i++)
+			balances[i] = in.readLong();
+	}
+
+	/**
+	 * Records every payment settled from now on in the given {@code journal}.
+	 * 
+	 * @param journal
+	 *            the journal, or {@code null} to stop recording
+	 */
+	public void setJournal(TransferJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @return the journal recording the payments, or {@code null}
+	 */
+	public TransferJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * @return the number of accounts in the ledger
+	 */
+	int getAccounts() {
+		return accounts;
+	}
+
+	/**
+	 * @param account
+	 *            the position of the account in the ledger
+	 * @return the account's funds, in micro-units
+	 */
+	long getMicros(int account) {
+		return balances[account];
+	}
+
+	/**
+	 * Pays {@code amount} to the {@code recepient} account even if the
+	 * {@code drawee} has to incur in debt, as the {@linkplain Government}
+	 * does.
+	 * 
+	 * @param kind
+	 * @param drawee
+	 * @param recepient
+	 *            the position of the recepient's account in the ledger
+	 * @param amount
+	 */
+	public void credit(Kind kind, BankAccount drawee, int recepient, float amount) {
+		long micros = Money.of(amount);
+		balances[drawee.id] -= micros;
+		balances[recepient] += micros;
+		if (journal != null)
+			journal.record(kind, drawee.id, recepient, micros);
+	}
+
+	/**
+	 * Posts a batch of payments the {@code drawee} owes, e.g. the government's
+	 * benefits: each recepient is credited its amount and the drawee is
+	 * debited their sum, even if it incurs in debt. The balances are the same
+	 * as after calling {@link #credit(Kind, BankAccount, int, float)} for each
+	 * payment, but the drawee's balance is read and written only once.<br>
+	 * Given a {@code pool}, the recepients are credited in parallel; as the
+	 * amounts are in micro-units, the outcome does not depend on it. The
+	 * payments are journaled in order by the calling thread.
+	 * 
+	 * @param kind
+	 * @param drawee
+	 * @param recepients
+	 *            the position in the ledger of each recepient's account; no
+	 *            account may appear twice, nor be the drawee's
+	 * @param amounts
+	 *            the amount of each payment, in micro-units
+	 * @param length
+	 *            the number of payments
+	 * @param pool
+	 *            the pool crediting the recepients, or {@code null} to do it
+	 *            in the calling thread
+	 */
+	public void credit(Kind kind, BankAccount drawee, int[] recepients, long[] amounts, int length,
+			ForkJoinPool pool) {
+		if (pool != null)
+			pool.invoke(new Deposits(recepients, amounts, 0, length));
+		else {
+			for (int i = 0; i < length; i++)
+				deposit(recepients[i], amounts[i]);
+		}
+
+		long total = 0;
+		for (int i = 0; i < length; i++)
+			total += amounts[i];
+		balances[drawee.id] -= total;
+
+		if (journal != null) {
+			for (int i = 0; i < length; i++)
+				journal.record(kind, drawee.id, recepients[i], amounts[i]);
+		}
+	}
+
+	private final class Deposits extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		// Number of deposits made in the same task
+		private static final int BATCH = 4096;
+
+		private final int[] recepients;
+		private final long[] amounts;
+		private final int from;
+		private final int to;
+
+		Deposits(int[] recepients, long[] amounts, int from, int to) {
+			this.recepients = recepients;
+			this.amounts = amounts;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BATCH) {
+				for (int i = from; i < to; i++)
+					deposit(recepients[i], amounts[i]);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Deposits(recepients, amounts, from, middle),
+						new Deposits(recepients, amounts, middle, to));
+			}
+		}
+	}
+
+	/**
+	 * Moves the whole balance of the {@code drawee}, even if negative, to the
+	 * {@code recepient}.
+	 * 
+	 * @param kind
+	 * @param drawee
+	 * @param recepient
+	 */
+	public void sweep(Kind kind, BankAccount drawee, BankAccount recepient) {
+		long micros = balances[drawee.id];
+		balances[recepient.id] += micros;
+		balances[drawee.id] = 0;
+		if (journal != null)
+			journal.record(kind, drawee.id, recepient.id, micros);
+	}
+
+	/**
+	 * Takes the whole balance of an {@code account} out of this bank, e.g. to
+	 * pay it into the bank of another partition of a distributed run (see
+	 * {@linkplain Partition}). It is journaled as a {@link Kind#REMITTANCE} to
+	 * no account.
+	 * 
+	 * @param account
+	 * @return the amount taken out, in micro-units
+	 */
+	long remit(BankAccount account) {
+		long micros = balances[account.id];
+		balances[account.id] = 0;
+		if (journal != null)
+			journal.record(Kind.REMITTANCE, account.id, -1, micros);
+		return micros;
+	}
+
+	/**
+	 * Pays into an {@code account} an amount taken out of another bank, see
+	 * {@link #remit(BankAccount)}. It is journaled as a
+	 * {@link Kind#REMITTANCE} from no account.
+	 * 
+	 * @param account
+	 * @param micros
+	 */
+	void receive(BankAccount account, long micros) {
+		deposit(account.id, micros);
+		if (journal != null)
+			journal.record(Kind.REMITTANCE, -1, account.id, micros);
+	}
+
+	private void deposit(int recepient, long amount) {
+		balances[recepient] += amount;
+	}
+
+	public boolean transfer(Kind kind, BankAccount drawee, Agent recepient, float amount) {
+		return transfer(kind, drawee, recepient.getAccount(), amount);
+	}
+
+	public boolean transfer(Kind kind, BankAccount drawee, BankAccount recepient, float amount) {
+		return transferMicros(kind, drawee, recepient, Money.of(amount));
+	}
+
+	/**
+	 * Same as {@link #transfer(Kind, BankAccount, BankAccount, float)}, for an
+	 * amount already in micro-units.
+	 * 
+	 * @param kind
+	 * @param drawee
+	 * @param recepient
+	 * @param micros
+	 * @return whether the drawee could afford the transfer
+	 */
+	public boolean transferMicros(Kind kind, BankAccount drawee, BankAccount recepient, long micros) {
+		if (balances[drawee.id] - micros >= 0) {
+			balances[drawee.id] -= micros;
+			deposit(recepient.id, micros);
+			if (journal != null)
+				journal.record(kind, drawee.id, recepient.id, micros);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Performs a batch of transfers from a single {@code drawee}, in the given
+	 * order, under the same rules as
+	 * {@link #transfer(Kind, BankAccount, BankAccount, float)}: each transfer
+	 * is only settled if the drawee can still afford it.<br>
+	 * The drawee's balance is read and written only once for the whole batch.
+	 * 
+	 * @param kind
+	 * @param drawee
+	 *            the account paying every transfer
+	 * @param recepients
+	 *            the account receiving each transfer (never the drawee itself)
+	 * @param amounts
+	 *            the amount of each transfer
+	 * @param settled
+	 *            set to {@code true} for each transfer that was settled
+	 * @param length
+	 *            the number of transfers in the batch
+	 * @return the number of settled transfers
+	 */
+	public int transfer(Kind kind, BankAccount drawee, BankAccount[] recepients, float[] amounts,
+			boolean[] settled, int length) {
+
+		long funds = balances[drawee.id];
+		int count = 0;
+		for (int i = 0; i < length; i++) {
+			long amount = Money.of(amounts[i]);
+			if (funds - amount >= 0) {
+				funds -= amount;
+				deposit(recepients[i].id, amount);
+				if (journal != null)
+					journal.record(kind, drawee.id, recepients[i].id, amount);
+				settled[i] = true;
+				count++;
+			} else
+				settled[i] = false;
+		}
+		balances[drawee.id] = funds;
+
+		return count;
+	}
+
+	/**
+	 * Settles a batch of purchases made by the {@code drawee}, e.g. a whole
+	 * shopping cart. Line {@code i} buys up to {@code quantities[i]} units
+	 * priced at {@code amounts[i]} from {@code recepients[i]}; each unit is
+	 * paid and then taxed ({@code amount * taxRate}) in favour of the
+	 * {@code taxman}.<br>
+	 * The outcome is the same as paying unit by unit with
+	 * {@link #transfer(Kind, BankAccount, BankAccount, float)}: a unit is
+	 * bought only if both its price and its tax were settled, and the tax is
+	 * only charged once the price was. However, the drawee and the taxman are
+	 * debited and credited once for the whole batch, and each recepient once
+	 * per line; likewise, each line is journaled as a single
+	 * {@link Kind#PURCHASE} and a single {@link Kind#VAT}.
+	 * 
+	 * @param drawee
+	 *            the buyer
+	 * @param recepients
+	 *            the seller of each line (never the drawee nor the taxman)
+	 * @param amounts
+	 *            the unit price of each line
+	 * @param quantities
+	 *            the number of units of each line
+	 * @param bought
+	 *            set to the number of units bought in each line
+	 * @param length
+	 *            the number of lines
+	 * @param taxman
+	 *            the account collecting the tax
+	 * @param taxRate
+	 *            the tax rate applied to each unit price
+	 * @return the tax levied on every unit whose price was paid, in
+	 *         micro-units
+	 */
+	public long purchase(BankAccount drawee, BankAccount[] recepients, float[] amounts, int[] quantities,
+			int[] bought, int length, BankAccount taxman, float taxRate) {
+
+		long funds = balances[drawee.id];
+		long taxes = balances[taxman.id];
+		long levied = 0;
+
+		for (int i = 0; i < length; i++) {
+			long price = Money.of(amounts[i]);
+			long tax = Money.of(amounts[i] * taxRate);
+			long income = balances[recepients[i].id];
+			int paid = 0;
+			int units = 0;
+
+			for (int j = 0; j < quantities[i]; j++) {
+				if (funds - price >= 0) {
+					funds -= price;
+					income += price;
+					levied += tax;
+					paid++;
+					if (funds - tax >= 0) {
+						funds -= tax;
+						taxes += tax;
+						units++;
+					}
+				} else
+					break;
+			}
+
+			balances[recepients[i].id] = income;
+			bought[i] = units;
+
+			if (journal != null) {
+				if (paid > 0)
+					journal.record(Kind.PURCHASE, drawee.id, recepients[i].id, price * paid);
+				if (units > 0)
+					journal.record(Kind.VAT, drawee.id, taxman.id, tax * units);
+			}
+		}
+
+		balances[drawee.id] = funds;
+		balances[taxman.id] = taxes;
+
+		return levied;
+	}
+
+	public boolean pay(Kind kind, Agent drawee, Agent recepient, float amount) {
+
+		// The government always pays what it owes, which means it can incur in debt
+		if (drawee instanceof Government) {
+			credit(kind, drawee.getAccount(), recepient.getAccount().id, amount);
+			return true;
+		} else {
+			return transfer(kind, drawee.getAccount(), recepient.getAccount(), amount);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import utilities.Configuration;
+import utilities.Properties;
+
+/**
+ * Runs several seeds of the simulation concurrently, in a single JVM.<br>
+ * Each run is a {@linkplain HeadlessEngine} with its own {@linkplain Economy},
+ * so runs share nothing but their (immutable) {@linkplain Configuration}. The
+ * results of each run are streamed to their own file, {@code run-<seed>.csv},
+ * in the output directory, or {@code run-<seed>.stats} if the output is binary
+ * (see {@linkplain StatisticsSink}).<br>
+ * <br>
+ * This replaces launching one JVM, and one Repast runtime, per seed as in
+ * {@code batch/batch_params.xml}. Note that every run holds a whole economy in
+ * memory, so the heap must be sized for {@code threads} economies at once.
+ *
+ */
+public class BatchExecutor {
+
+	private final Configuration configuration;
+	private final int ticks;
+	private final File directory;
+	private final ExecutorService pool;
+	private boolean binary = false;
+
+	/**
+	 * Runs with the parameters read by {@link Configuration#fromParameters()}.
+	 *
+	 * @param threads
+	 *            the number of runs executed at the same time
+	 * @param ticks
+	 *            the number of ticks of each run
+	 * @param directory
+	 *            where the results of each run are written
+	 */
+	public BatchExecutor(int threads, int ticks, File directory) {
+		this(Configuration.fromParameters(), threads, ticks, directory);
+	}
+
+	/**
+	 * @param configuration
+	 *            the parameters of every run
+	 * @param threads
+	 *            the number of runs executed at the same time
+	 * @param ticks
+	 *            the number of ticks of each run
+	 * @param directory
+	 *            where the results of each run are written
+	 */
+	public BatchExecutor(Configuration configuration, int threads, int ticks, File directory) {
+		this.configuration = configuration;
+		this.ticks = ticks;
+		this.directory = directory;
+		pool = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Runs every seed and waits for all of them to finish. A failed run does
+	 * not stop the others; the failure of the first one is thrown once they
+	 * are all done.
+	 *
+	 * @param seeds
+	 * @return the file holding the results of each seed
+	 * @throws ExecutionException
+	 *             if any of the runs failed
+	 * @throws InterruptedException
+	 */
+	public List<File> run(long[] seeds) throws InterruptedException, ExecutionException {
+		directory.mkdirs();
+
+		List<Future<File>> runs = new ArrayList<Future<File>>();
+		for (final long seed : seeds) {
+			runs.add(pool.submit(new Callable<File>() {
+				@Override
+				public File call() throws IOException {
+					return run(seed);
+				}
+			}));
+		}
+
+		List<File> results = new ArrayList<File>();
+		ExecutionException failure = null;
+		for (Future<File> run : runs) {
+			try {
+				results.add(run.get());
+			} catch (ExecutionException e) {
+				if (failure == null)
+					failure = e;
+				results.add(null);
+			}
+		}
+
+		if (failure != null)
+			throw failure;
+		return results;
+	}
+
+	/**
+	 * @param binary
+	 *            whether the results are written in binary, by a
+	 *            {@linkplain StatisticsSink}, rather than as text
+	 */
+	public void setBinaryOutput(boolean binary) {
+		this.binary = binary;
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private File run(long seed) throws IOException {
+		if (binary) {
+			File file = new File(directory, "run-" + seed + ".stats");
+			StatisticsSink sink = new StatisticsSink(file, ticks);
+			HeadlessEngine engine = new HeadlessEngine(configuration, seed);
+			try {
+				engine.run(ticks, sink);
+			} finally {
+				sink.close();
+				engine.getEconomy().close();
+			}
+			return file;
+		}
+
+		File file = new File(directory, "run-" + seed + ".csv");
+		PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)));
+		HeadlessEngine engine = new HeadlessEngine(configuration, seed);
+		try {
+			engine.run(ticks, out);
+		} finally {
+			out.close();
+			engine.getEconomy().close();
+		}
+		return file;
+	}
+
+	/**
+	 * Usage: {@code BatchExecutor runs [first seed] [ticks] [threads] [output directory]}
+	 * <br>
+	 * Runs the seeds {@code first seed} to {@code first seed + runs - 1}. With
+	 * {@code -Dbinary=true}, the results are written in binary.
+	 */
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		long first = args.length > 1 ? Long.parseLong(args[1]) : 1;
+		int ticks = args.length > 2 ? Integer.parseInt(args[2]) : Properties.END_TICK;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		File directory = new File(args.length > 4 ? args[4] : "output");
+
+		long[] seeds = new long[runs];
+		for (int i = 0; i < runs; i++)
+			seeds[i] = first + i;
+
+		BatchExecutor executor = new BatchExecutor(threads, ticks, directory);
+		executor.setBinaryOutput(Boolean.getBoolean("binary"));
+		try {
+			executor.run(seeds);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
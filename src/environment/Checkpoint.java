@@ -0,0 +1,123 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import utilities.Configuration;
+
+/**
+ * Saves the whole state of a run between two ticks and resumes runs from it.
+ * <br>
+ * A checkpoint holds the state of every member of the {@linkplain Economy}:
+ * the firms with their contracts and stock, the households, the bank's ledger,
+ * the markets, the government's accumulators, the statistics, the run's
+ * counters and every random generator. It does not hold the parameters of the
+ * run: a checkpoint is restored under a given {@linkplain Configuration}, so
+ * that several scenarios, e.g. with different tax rates, can be forked from
+ * the same warmed up economy instead of simulating the warm-up again for each
+ * one. Only the number of firms and households must be the same.<br>
+ * <br>
+ * The offers of the goods and labor markets are not saved, as every tick
+ * starts by clearing them.<br>
+ * <br>
+ * The file is a small header (magic number, version, seed, tick, number of
+ * firms and households) followed by the raw binary state of each member,
+ * written in the order the economy creates them.
+ *
+ */
+public final class Checkpoint {
+
+	private static final long MAGIC = 0x414D6F5349636B70L; // "AMoSIckp"
+	private static final int VERSION = 3;
+
+	private Checkpoint() {
+	}
+
+	/**
+	 * Saves the state of the run driven by the {@code engine}, after its
+	 * current tick.
+	 *
+	 * @param engine
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void save(HeadlessEngine engine, File file) throws IOException {
+		Economy economy = engine.getEconomy();
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(economy.getSeed());
+			out.writeInt(engine.getTick());
+			out.writeInt(economy.getFirms().size());
+			out.writeInt(economy.getHouseholds().size());
+			economy.writeState(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Resumes a run from the state saved in the {@code file}, with the
+	 * parameters read by {@link Configuration#fromParameters()}.
+	 *
+	 * @param file
+	 * @return an engine whose next tick follows the saved one
+	 * @throws IOException
+	 *             if the file is not a checkpoint or was saved with a
+	 *             different number of firms or households
+	 */
+	public static HeadlessEngine restore(File file) throws IOException {
+		return restore(file, Configuration.fromParameters());
+	}
+
+	/**
+	 * Resumes a run from the state saved in the {@code file}.
+	 *
+	 * @param file
+	 * @param configuration
+	 *            the parameters of the resumed run
+	 * @return an engine whose next tick follows the saved one
+	 * @throws IOException
+	 *             if the file is not a checkpoint or was saved with a
+	 *             different number of firms or households
+	 */
+	public static HeadlessEngine restore(File file, Configuration configuration) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readLong() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a checkpoint: " + file);
+
+			long seed = in.readLong();
+			int tick = in.readInt();
+			int firms = in.readInt();
+			int households = in.readInt();
+			if (firms != configuration.getFirmsNumber() || households != configuration.getHouseholdsNumber())
+				throw new IOException("The checkpoint was saved with " + firms + " firms and " + households
+						+ " households, the run has " + configuration.getFirmsNumber() + " and "
+						+ configuration.getHouseholdsNumber());
+
+			Economy economy = new Economy(configuration, seed);
+			try {
+				economy.readState(in);
+			} catch (IOException | RuntimeException e) {
+				economy.close();
+				throw e;
+			}
+			return new HeadlessEngine(economy, tick);
+		} finally {
+			in.close();
+		}
+	}
+
+}
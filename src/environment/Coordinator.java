@@ -0,0 +1,292 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import environment.HeadlessEngine.Stage;
+import utilities.Configuration;
+import utilities.Properties;
+import utilities.RandomStream;
+
+/**
+ * Runs the simulation distributed over several JVMs, one per
+ * {@linkplain Partition}, connected to the coordinator by local sockets.<br>
+ * The coordinator starts the JVMs of the partitions (unless
+ * {@code -Dpartition.spawn=false}, in which case it waits for them to connect),
+ * gives each one its share of the run, and drives the cycle: for each stage,
+ * it sends every partition the command to settle then to run it, with the
+ * messages the other partitions sent it at the previous step, in a single
+ * batch. After each tick, it adds up the indicators of the partitions.<br>
+ * <br>
+ * A run with a single partition is the same as the run of the
+ * {@linkplain HeadlessEngine} with the same seed. A distributed run cannot be
+ * saved to a {@linkplain Checkpoint}.
+ *
+ */
+public class Coordinator {
+
+	private final int partitions;
+	private final Socket[] sockets;
+	private final DataInputStream[] in;
+	private final DataOutputStream[] out;
+	private final List<Process> workers = new ArrayList<Process>();
+
+	// The messages from each partition (second index) to each partition
+	// (first index), sent with the next step
+	private byte[][][] routed;
+
+	// The indicators of the last tick
+	private float GDP;
+	private int productionOutput;
+	private double employmentRate;
+	private float averageWage;
+	private float govFunds;
+
+	/**
+	 * Starts the partitions of a run and waits for all of them to connect.
+	 *
+	 * @param configuration
+	 *            the parameters of the whole run
+	 * @param seed
+	 * @param partitions
+	 *            the number of partitions, i.e. of JVMs
+	 * @throws IOException
+	 *             if a partition cannot be started or does not connect
+	 */
+	public Coordinator(Configuration configuration, long seed, int partitions) throws IOException {
+		this.partitions = partitions;
+		sockets = new Socket[partitions];
+		in = new DataInputStream[partitions];
+		out = new DataOutputStream[partitions];
+		routed = new byte[partitions][partitions][0];
+
+		ServerSocket server = new ServerSocket(0, partitions, InetAddress.getLoopbackAddress());
+		try {
+			server.setSoTimeout(Properties.PARTITION_TIMEOUT);
+			if (Boolean.parseBoolean(System.getProperty("partition.spawn", "true")))
+				spawn(server.getLocalPort());
+			else
+				System.err.println("Waiting for " + partitions + " partitions on port " + server.getLocalPort());
+
+			for (int i = 0; i < partitions; i++) {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				int index = input.readInt();
+				if (index < 0 || index >= partitions || sockets[index] != null)
+					throw new IOException("Unexpected partition " + index);
+				sockets[index] = socket;
+				in[index] = input;
+				out[index] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		} finally {
+			server.close();
+		}
+
+		// a single partition runs with the seed of the run itself
+		RandomStream streams = new RandomStream(seed);
+		for (int i = 0; i < partitions; i++) {
+			out[i].writeInt(partitions);
+			configuration.write(out[i]);
+			out[i].writeLong(partitions == 1 ? seed : streams.nextLong());
+			out[i].writeLong(streams.nextLong());
+			out[i].flush();
+		}
+	}
+
+	/**
+	 * Starts a JVM per partition, with the class path and the options of this
+	 * one.
+	 */
+	private void spawn(int port) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		for (int i = 0; i < partitions; i++) {
+			List<String> command = new ArrayList<String>();
+			command.add(java);
+			command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(Partition.class.getName());
+			command.add(InetAddress.getLoopbackAddress().getHostAddress());
+			command.add(String.valueOf(port));
+			command.add(String.valueOf(i));
+			workers.add(new ProcessBuilder(command).inheritIO().start());
+		}
+	}
+
+	/**
+	 * Runs one whole economic cycle in every partition.
+	 *
+	 * @throws IOException
+	 *             if a partition failed
+	 */
+	public void step() throws IOException {
+		for (Stage stage : Stage.values()) {
+			exchange(Partition.SETTLE, stage);
+			exchange(Partition.RUN, stage);
+		}
+	}
+
+	/**
+	 * Sends a command to every partition with the messages routed to it, then
+	 * collects the messages each one sends in return.
+	 */
+	private void exchange(byte command, Stage stage) throws IOException {
+		for (int i = 0; i < partitions; i++) {
+			out[i].writeByte(command);
+			out[i].writeInt(stage.ordinal());
+			for (byte[] messages : routed[i]) {
+				out[i].writeInt(messages.length);
+				out[i].write(messages);
+			}
+			out[i].flush();
+		}
+
+		byte[][][] next = new byte[partitions][partitions][];
+		for (int i = 0; i < partitions; i++) {
+			for (int j = 0; j < partitions; j++) {
+				next[j][i] = new byte[in[i].readInt()];
+				in[i].readFully(next[j][i]);
+			}
+		}
+		routed = next;
+
+		if (command == Partition.RUN && stage == Stage.ACCOUNTING)
+			readIndicators();
+	}
+
+	/**
+	 * Adds up the indicators of every partition, as written by
+	 * {@link Partition}.
+	 */
+	private void readIndicators() throws IOException {
+		float gdp = 0;
+		int production = 0;
+		int employed = 0;
+		int households = 0;
+		float wages = 0;
+		float employees = 0;
+		float funds = 0;
+		for (int i = 0; i < partitions; i++) {
+			gdp += in[i].readFloat();
+			production += in[i].readInt();
+			employed += in[i].readInt();
+			households += in[i].readInt();
+			wages += in[i].readFloat();
+			employees += in[i].readFloat();
+			funds += in[i].readFloat();
+		}
+
+		GDP = gdp;
+		productionOutput = production;
+		employmentRate = (double) employed / households;
+		averageWage = wages / employees;
+		govFunds = funds;
+	}
+
+	/**
+	 * Runs {@code ticks} economic cycles, writing the indicators of the whole
+	 * run after each one to {@code out} as comma separated values.
+	 */
+	public void run(int ticks, PrintStream out) throws IOException {
+		out.println("tick,GDP,ProductionOutput,EmploymentRate,AverageWage,GovFunds");
+		for (int tick = 1; tick <= ticks; tick++) {
+			step();
+			out.println(tick + "," + GDP + "," + productionOutput + "," + employmentRate + ","
+					+ (double) averageWage + "," + govFunds);
+		}
+	}
+
+	/**
+	 * Stops the partitions and waits for their JVMs to end.
+	 */
+	public void close() throws IOException {
+		try {
+			for (int i = 0; i < partitions; i++) {
+				if (out[i] != null) {
+					try {
+						out[i].writeByte(Partition.STOP);
+						out[i].flush();
+					} catch (IOException e) {
+						// the partition already ended
+					}
+					sockets[i].close();
+				}
+			}
+			for (Process worker : workers)
+				worker.waitFor();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (Process worker : workers)
+				worker.destroy();
+		}
+	}
+
+	public double getGDP() {
+		return GDP;
+	}
+
+	public int getProductionOutput() {
+		return productionOutput;
+	}
+
+	public double getEmploymentRate() {
+		return employmentRate;
+	}
+
+	public double getAverageWage() {
+		return averageWage;
+	}
+
+	public double getGovFunds() {
+		return govFunds;
+	}
+
+	/**
+	 * Usage: {@code Coordinator [ticks] [seed] [partitions]}<br>
+	 * Runs the simulation over {@code partitions} local JVMs (2 by default),
+	 * with the parameters read by {@link Configuration#fromParameters()}, and
+	 * writes the indicators of the whole run to the standard output. With
+	 * {@code -Dstats=<directory>}, each partition also writes its own, and with
+	 * {@code -Djournal=<directory>} it records its payments (see
+	 * {@link Partition#main(String[])}).
+	 */
+	public static void main(String[] args) throws IOException {
+		int ticks = args.length > 0 ? Integer.parseInt(args[0]) : Properties.END_TICK;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+		int partitions = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+		String stats = System.getProperty("stats");
+		if (stats != null)
+			new File(stats).mkdirs();
+		String journal = System.getProperty("journal");
+		if (journal != null)
+			new File(journal).mkdirs();
+
+		Coordinator coordinator = new Coordinator(Configuration.fromParameters(), seed, partitions);
+		try {
+			coordinator.run(ticks, System.out);
+		} finally {
+			coordinator.close();
+		}
+	}
+
+}
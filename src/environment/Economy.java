@@ -0,0 +1,377 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import agents.Firm;
+import agents.Government;
+import agents.Household;
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.MersenneTwister;
+import utilities.Configuration;
+import utilities.Properties;
+import utilities.RandomStream;
+
+/**
+ * The context of one run of the simulation: all its agents and entities, its
+ * {@linkplain Bank} and its counters. Nothing is shared between two runs, so
+ * several economies can run at the same time in the same JVM (see
+ * {@link BatchExecutor}).<br>
+ * It is created by {@link SimBuilder}, which inserts its members in the Repast
+ * context, or by {@link HeadlessEngine}, which drives them without the Repast
+ * runtime. Only the latter runs economies sharded in several
+ * {@linkplain Region}s, or holding one {@linkplain Partition} of a run
+ * distributed over several JVMs.
+ *
+ */
+public class Economy {
+
+	private final Configuration configuration;
+	private final long seed;
+	private final Bank bank = new Bank();
+	private final HouseholdStore householdStore;
+
+	// Draws the agents' parameters; always seeded with 1, which guarantees
+	// the same parameters distribution throughout the scenarios/runs
+	private Uniform parameters = new Uniform(0, 1, new MersenneTwister(1));
+
+	private int iterationLoad = 1;
+	private int iteration = 1;
+	private int ID = 0;
+	private int aliveFirms;
+
+	private final Government government;
+	private final List<Region> regions;
+	private final ForkJoinPool regionPool;
+	private final List<Firm> firms;
+	private final List<Household> households;
+	private final StatisticsManager statistics;
+	private final ParallelConsumption consumption;
+
+	/**
+	 * Creates every agent of the run, as defined in its {@code configuration}
+	 * and in {@linkplain Properties}.
+	 *
+	 * @param configuration
+	 *            the parameters of the run
+	 * @param seed
+	 *            the seed of the run
+	 */
+	Economy(Configuration configuration, long seed) {
+		this(configuration, seed, 0, 1);
+	}
+
+	/**
+	 * Creates the agents of one partition of a distributed run (see
+	 * {@linkplain Partition}): out of the agents defined in the
+	 * {@code configuration}, those whose position is {@code partition} modulo
+	 * {@code partitions}.
+	 *
+	 * @param configuration
+	 *            the parameters of the whole run
+	 * @param seed
+	 *            the seed of the partition
+	 * @param partition
+	 *            the position of the partition
+	 * @param partitions
+	 *            the number of partitions of the run
+	 */
+	Economy(Configuration configuration, long seed, int partition, int partitions) {
+		this.configuration = configuration;
+		this.seed = seed;
+		householdStore = new HouseholdStore(bank, configuration);
+
+		government = new Government(bank, configuration);
+
+		List<Region> shards = new ArrayList<Region>();
+		if (configuration.getRegions() == 1) {
+			shards.add(new Region(this, 0, government, new RandomStream(seed), null));
+			regionPool = null;
+		} else {
+			// each region collects its taxes and draws from its own streams
+			RandomStream streams = new RandomStream(seed);
+			for (int i = 0; i < configuration.getRegions(); i++)
+				shards.add(new Region(this, i, new Government(bank, configuration), streams.split(),
+						streams.split()));
+			regionPool = new ForkJoinPool(Math.min(configuration.getRegions(), Properties.REGION_THREADS));
+		}
+		regions = Collections.unmodifiableList(shards);
+
+		List<Firm> contextFirms = new ArrayList<Firm>();
+		statistics = new StatisticsManager(this, contextFirms);
+
+		// the agents are dealt to the partitions, then to the regions, in turn
+		for (int i = partition; i < configuration.getFirmsNumber(); i += partitions) {
+			Region region = regions.get(contextFirms.size() % regions.size());
+			Firm firm = new Firm(this, region);
+			region.add(firm);
+			contextFirms.add(firm);
+		}
+		aliveFirms = contextFirms.size();
+
+		List<Household> contextHouseholds = new ArrayList<Household>();
+		for (int i = partition; i < configuration.getHouseholdsNumber(); i += partitions) {
+			Region region = regions.get(contextHouseholds.size() % regions.size());
+			Household hh;
+			if (i < Properties.SUPED_NUMBER)
+				hh = new Household(this, region, Properties.SUPERIOR_EDUCATION);
+			else if (i < Properties.TECHED_NUMBER)
+				hh = new Household(this, region, Properties.TECHNICAL_EDUCATION);
+			else
+				hh = new Household(this, region, Properties.SECONDARY_EDUCATION);
+			region.add(hh);
+			contextHouseholds.add(hh);
+		}
+
+		government.setFiels(householdStore);
+
+		// the regions of a sharded run consume in parallel already
+		if (Properties.PARALLEL_CONSUMPTION && !isSharded())
+			consumption = new ParallelConsumption(getGoodsMarket(), contextHouseholds);
+		else
+			consumption = null;
+
+		firms = Collections.unmodifiableList(contextFirms);
+		households = Collections.unmodifiableList(contextHouseholds);
+	}
+
+	/**
+	 * Writes the state of every member of the run, see {@linkplain Checkpoint}.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	void writeState(DataOutput out) throws IOException {
+		out.writeInt(iterationLoad);
+		out.writeInt(iteration);
+		out.writeInt(ID);
+		out.writeInt(aliveFirms);
+
+		ByteArrayOutputStream rng = new ByteArrayOutputStream();
+		ObjectOutputStream stream = new ObjectOutputStream(rng);
+		stream.writeObject(parameters);
+		stream.close();
+		out.writeInt(rng.size());
+		out.write(rng.toByteArray());
+
+		bank.writeState(out);
+		government.writeState(out);
+		out.writeInt(regions.size());
+		for (Region region : regions)
+			region.writeState(out);
+		for (Firm firm : firms)
+			firm.writeState(out);
+		for (Household hh : households)
+			hh.writeState(out);
+		householdStore.writeState(out);
+		statistics.writeState(out);
+
+		out.writeBoolean(consumption != null);
+		if (consumption != null)
+			consumption.writeState(out);
+	}
+
+	/**
+	 * Restores the state written by {@link #writeState(DataOutput)} into this
+	 * economy, which must have been created with the same number of agents.
+	 *
+	 * @param in
+	 * @throws IOException
+	 */
+	void readState(DataInput in) throws IOException {
+		iterationLoad = in.readInt();
+		iteration = in.readInt();
+		ID = in.readInt();
+		aliveFirms = in.readInt();
+
+		byte[] rng = new byte[in.readInt()];
+		in.readFully(rng);
+		ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(rng));
+		try {
+			parameters = (Uniform) stream.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Cannot restore the parameters' generator", e);
+		} finally {
+			stream.close();
+		}
+
+		bank.readState(in);
+		government.readState(in);
+		int count = in.readInt();
+		if (count != regions.size())
+			throw new IOException("The checkpoint holds " + count + " regions, the run " + regions.size());
+		for (Region region : regions)
+			region.readState(in);
+		// the firms hire their employees again, so the households' columns
+		// are restored afterwards
+		for (Firm firm : firms)
+			firm.readState(in);
+		for (Region region : regions)
+			region.countOpenFirms();
+		for (Household hh : households)
+			hh.readState(in);
+		householdStore.readState(in);
+		statistics.readState(in);
+
+		// the stream of a parallel consumption stage, if any, is only
+		// restored if this run consumes in parallel too
+		if (in.readBoolean()) {
+			if (consumption != null)
+				consumption.readState(in);
+			else {
+				in.readLong();
+				in.readLong();
+			}
+		}
+	}
+
+	/**
+	 * Counts one more firm done with its accounting stage. Once every open
+	 * firm is done, the next iteration begins.
+	 */
+	public final void nextIteration() {
+
+		if (iterationLoad == aliveFirms) {
+			iterationLoad = 1;
+			iteration++;
+		} else
+			iterationLoad++;
+	}
+
+	public final int getIteration() {
+		return iteration;
+	}
+
+	public final int getIterationLoad() {
+		return iterationLoad;
+	}
+
+	/**
+	 * @return a new firm's ID
+	 */
+	public final int nextID() {
+		ID++;
+		return ID;
+	}
+
+	public final void communicateClosure() {
+		aliveFirms--;
+	}
+
+	public final int getNumberOfOpenFirms() {
+		return aliveFirms;
+	}
+
+	public final int getNumberOfHouseholds() {
+		return households.size();
+	}
+
+	/**
+	 * Draws one of the agents' parameters.
+	 *
+	 * @return a uniformly distributed value in [{@code from}, {@code to})
+	 */
+	public final double nextParameter(double from, double to) {
+		return parameters.nextDoubleFromTo(from, to);
+	}
+
+	public final Configuration getConfiguration() {
+		return configuration;
+	}
+
+	public final long getSeed() {
+		return seed;
+	}
+
+	public final Bank getBank() {
+		return bank;
+	}
+
+	public final HouseholdStore getHouseholdStore() {
+		return householdStore;
+	}
+
+	public final Government getGovernment() {
+		return government;
+	}
+
+	/**
+	 * @return the goods market of the first region, the only one unless the
+	 *         run is sharded
+	 */
+	public final GoodsMarket getGoodsMarket() {
+		return regions.get(0).getGoodsMarket();
+	}
+
+	/**
+	 * @return the labor market of the first region, the only one unless the
+	 *         run is sharded
+	 */
+	public final LaborMarket getLaborMarket() {
+		return regions.get(0).getLaborMarket();
+	}
+
+	public final List<Region> getRegions() {
+		return regions;
+	}
+
+	/**
+	 * @return whether the run is sharded in several regions
+	 */
+	public final boolean isSharded() {
+		return regions.size() > 1;
+	}
+
+	/**
+	 * @return the pool running the regions of a sharded run, {@code null} if
+	 *         the run is not sharded
+	 */
+	final ForkJoinPool getRegionPool() {
+		return regionPool;
+	}
+
+	/**
+	 * Shuts down the threads of the run once it is over; the economy cannot
+	 * be run any more.
+	 */
+	public void close() {
+		if (regionPool != null)
+			regionPool.shutdown();
+		government.close();
+		if (consumption != null)
+			consumption.close();
+	}
+
+	public final List<Firm> getFirms() {
+		return firms;
+	}
+
+	public final List<Household> getHouseholds() {
+		return households;
+	}
+
+	public final StatisticsManager getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @return the driver of the parallel consumption stage, or {@code null}
+	 *         if the households consume one at a time
+	 */
+	public final ParallelConsumption getConsumption() {
+		return consumption;
+	}
+
+}
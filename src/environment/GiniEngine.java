@@ -0,0 +1,167 @@
+/**
+ *
+ */
+package environment;
+
+import java.util.Arrays;
+
+/**
+ * Computes the Gini indexes of the households' income, wage, consumption and
+ * funds.<br>
+ * Each tick the four attributes are copied once from the
+ * {@linkplain HouseholdStore} into primitive arrays ({@link #snapshot}), which
+ * are then sorted in place.<br>
+ * <br>
+ * Two modes are available:
+ * <ul>
+ * <li><i>exact</i> - the arrays are sorted with a primitive sort and the index
+ * is given by the same formula (and float arithmetic) used so far:
+ * {@code G = (n + 1 - 2 * sum((n + 1 - i) * x_i) / sum(x_i)) / n}.</li>
+ * <li><i>sketch</i> - for very large populations, the values are counted in a
+ * histogram of {@code buckets} equal-width buckets, in a single pass and
+ * without sorting. Each bucket is taken as a block of equal values (its mean),
+ * so the result differs from the exact index by at most
+ * {@code (max - min) / (buckets * mean)}.</li>
+ * </ul>
+ *
+ */
+final class GiniEngine {
+
+	private float[] income = new float[0];
+	private float[] wage = new float[0];
+	private float[] consumption = new float[0];
+	private float[] balance = new float[0];
+	private int size = 0;
+	private int employed = 0;
+	private long funds = 0;
+
+	// Histogram buffers used by the sketch mode
+	private final int buckets;
+	private final int[] counts;
+	private final double[] sums;
+
+	GiniEngine(int buckets) {
+		this.buckets = buckets;
+		counts = new int[buckets];
+		sums = new double[buckets];
+	}
+
+	/**
+	 * Copies the attributes of the {@code households} into the engine's
+	 * arrays.
+	 *
+	 * @param households
+	 */
+	void snapshot(HouseholdStore households) {
+		size = households.size();
+		if (income.length < size) {
+			income = new float[size];
+			wage = new float[size];
+			consumption = new float[size];
+			balance = new float[size];
+		}
+
+		long total = 0;
+		for (int i = 0; i < size; i++) {
+			income[i] = households.getIncome(i);
+			wage[i] = households.getWage(i);
+			consumption[i] = households.getConsumption(i);
+			balance[i] = households.getBalance(i);
+			total += households.getMicros(i);
+		}
+		funds = total;
+		employed = households.getEmployed();
+	}
+
+	float giniIncome(boolean sketch) {
+		return sketch ? sketch(income) : exact(income);
+	}
+
+	float giniWage(boolean sketch) {
+		return sketch ? sketch(wage) : exact(wage);
+	}
+
+	float giniConsumption(boolean sketch) {
+		return sketch ? sketch(consumption) : exact(consumption);
+	}
+
+	float giniFunds(boolean sketch) {
+		return sketch ? sketch(balance) : exact(balance);
+	}
+
+	/**
+	 * @return the number of employed households in the last snapshot
+	 */
+	int getEmployed() {
+		return employed;
+	}
+
+	/**
+	 * @return the total consumption in the last snapshot
+	 */
+	int getTotalConsumption() {
+		int total = 0;
+		for (int i = 0; i < size; i++)
+			total += (int) consumption[i];
+		return total;
+	}
+
+	/**
+	 * @return the sum of the households' funds in the last snapshot, in
+	 *         micro-units
+	 */
+	long getTotalFunds() {
+		return funds;
+	}
+
+	private float exact(float[] values) {
+		Arrays.sort(values, 0, size);
+
+		float population = size, num = 0, denom = 0;
+		for (int i = 1; i <= population; i++) {
+			num += (population + 1 - i) * values[i - 1];
+			denom += values[i - 1];
+		}
+
+		return denom > 0 ? (1 / population) * (population + 1 - 2 * num / denom) : 0;
+	}
+
+	private float sketch(float[] values) {
+		if (size == 0)
+			return 0;
+
+		float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+		for (int i = 0; i < size; i++) {
+			if (values[i] < min)
+				min = values[i];
+			if (values[i] > max)
+				max = values[i];
+		}
+
+		Arrays.fill(counts, 0);
+		Arrays.fill(sums, 0);
+		double width = (max - min) / (double) buckets;
+		for (int i = 0; i < size; i++) {
+			int bucket = width > 0 ? (int) ((values[i] - min) / width) : 0;
+			if (bucket >= buckets)
+				bucket = buckets - 1;
+			counts[bucket]++;
+			sums[bucket] += values[i];
+		}
+
+		// A bucket holding the ranks a+1..a+c contributes
+		// mean * sum(n + 1 - r) = sum * (n + 1 - (2a + c + 1) / 2)
+		double population = size, num = 0, denom = 0;
+		long rank = 0;
+		for (int b = 0; b < buckets; b++) {
+			if (counts[b] == 0)
+				continue;
+			num += sums[b] * (population + 1 - (2 * rank + counts[b] + 1) / 2.0);
+			denom += sums[b];
+			rank += counts[b];
+		}
+
+		return denom > 0 ? (float) ((population + 1 - 2 * num / denom) / population) : 0;
+	}
+
+}
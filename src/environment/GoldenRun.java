@@ -0,0 +1,316 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import utilities.Configuration;
+import utilities.Properties;
+
+/**
+ * Checks that a change to the engine does not change the economics of a run.
+ * <br>
+ * A <i>golden trace</i> holds the configuration and the seed of a run, and the
+ * {@linkplain StateDigest} of its state after every tick. Checking an engine
+ * against the trace runs it with the same configuration and seed, and
+ * compares its digests tick by tick: the first tick whose digests differ,
+ * and the fields that differ, are reported as a {@linkplain Divergence}.
+ * Fields missing from either the trace or the current digests, e.g. an
+ * indicator added since the trace was recorded, are not compared.<br>
+ * A trace is a file of big endian values:
+ *
+ * <pre>
+ * header   magic (int), version (short), seed (long), configuration,
+ *          fields (short), the name of each field (UTF)
+ * rows     tick (int), the digest of each field (long)
+ * </pre>
+ *
+ */
+public final class GoldenRun {
+
+	/**
+	 * The first difference between a run and its golden trace: the first tick
+	 * at which any digest differs, and every field whose digest differs at
+	 * that tick.
+	 */
+	public static final class Divergence {
+		private final int tick;
+		private final List<String> fields;
+
+		Divergence(int tick, List<String> fields) {
+			this.tick = tick;
+			this.fields = fields;
+		}
+
+		public int getTick() {
+			return tick;
+		}
+
+		/**
+		 * @return the first field that diverged, in the order of
+		 *         {@link StateDigest#getNames()}
+		 */
+		public String getField() {
+			return fields.get(0);
+		}
+
+		/**
+		 * @return every field that diverged at the tick
+		 */
+		public List<String> getFields() {
+			return Collections.unmodifiableList(fields);
+		}
+
+		@Override
+		public String toString() {
+			return "tick " + tick + " in " + fields;
+		}
+	}
+
+	static final int MAGIC = 0x54474D41; // "AMGT"
+	static final short VERSION = 1;
+
+	private GoldenRun() {
+	}
+
+	/**
+	 * Runs a new {@code engine} for {@code ticks} ticks, writing the digests
+	 * of its state after each one to the {@code trace}.
+	 *
+	 * @throws IOException
+	 *             if the trace cannot be written
+	 */
+	public static void record(HeadlessEngine engine, int ticks, File trace) throws IOException {
+		if (engine.getTick() != 0)
+			throw new IllegalArgumentException("A golden run starts at the first tick, not " + engine.getTick());
+
+		Economy economy = engine.getEconomy();
+		String[] names = StateDigest.getNames();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(trace)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeLong(economy.getSeed());
+			economy.getConfiguration().write(out);
+			out.writeShort(names.length);
+			for (String name : names)
+				out.writeUTF(name);
+
+			StateDigest digest = new StateDigest();
+			for (int i = 0; i < ticks; i++) {
+				engine.step();
+				out.writeInt(engine.getTick());
+				for (long value : digest.update(economy))
+					out.writeLong(value);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Creates the engine of the run a {@code trace} was recorded from. The
+	 * parameters given as system properties (e.g. {@code -Dregions=4})
+	 * override those of the trace, so that another configuration can be
+	 * checked against it.
+	 *
+	 * @throws IOException
+	 *             if the trace cannot be read
+	 */
+	public static HeadlessEngine engine(File trace) throws IOException {
+		DataInputStream in = open(trace);
+		try {
+			long seed = in.readLong();
+			Configuration configuration = Configuration.read(in);
+			for (String name : System.getProperties().stringPropertyNames()) {
+				if (Configuration.isParameter(name))
+					configuration = configuration.with(name, System.getProperty(name));
+			}
+			return new HeadlessEngine(configuration, seed);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Runs the {@code engine} up to the last tick of the {@code trace},
+	 * comparing its digests with those of the trace after each tick. An
+	 * engine resumed from a {@linkplain Checkpoint} is compared from the tick
+	 * after its own.
+	 *
+	 * @return the first divergence, or {@code null} if the run matches the
+	 *         whole trace
+	 * @throws IOException
+	 *             if the trace cannot be read
+	 */
+	public static Divergence check(HeadlessEngine engine, File trace) throws IOException {
+		DataInputStream in = open(trace);
+		try {
+			in.readLong();
+			Configuration.read(in);
+
+			List<String> current = Arrays.asList(StateDigest.getNames());
+			String[] names = new String[in.readShort()];
+			int[] fields = new int[names.length];
+			for (int i = 0; i < names.length; i++) {
+				names[i] = in.readUTF();
+				fields[i] = current.indexOf(names[i]);
+			}
+
+			StateDigest digest = engine.getTick() == 0 ? new StateDigest() : null;
+			long[] row = new long[names.length];
+			while (true) {
+				int tick;
+				try {
+					tick = in.readInt();
+				} catch (EOFException e) {
+					return null;
+				}
+				for (int i = 0; i < row.length; i++)
+					row[i] = in.readLong();
+
+				if (tick <= engine.getTick()) {
+					if (tick == engine.getTick())
+						digest = resume(names, row);
+					continue;
+				}
+				if (digest == null)
+					throw new IOException("The trace " + trace + " has no tick " + engine.getTick());
+
+				engine.step();
+				if (engine.getTick() != tick)
+					throw new IOException(
+							"Expected the tick " + tick + " in " + trace + ", found " + engine.getTick());
+
+				long[] digests = digest.update(engine.getEconomy());
+				List<String> diverged = new ArrayList<String>();
+				for (int i = 0; i < names.length; i++) {
+					if (fields[i] >= 0 && digests[fields[i]] != row[i])
+						diverged.add(names[i]);
+				}
+				if (!diverged.isEmpty())
+					return new Divergence(tick, diverged);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the digests of the trace's {@code row}, to carry on from
+	 */
+	private static StateDigest resume(String[] names, long[] row) throws IOException {
+		if (!Arrays.equals(names, StateDigest.getNames()))
+			throw new IOException("A resumed run can only be checked against a trace of the same fields");
+		return new StateDigest(row);
+	}
+
+	private static DataInputStream open(File trace) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(trace)));
+		if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+			in.close();
+			throw new IOException("Not a golden trace: " + trace);
+		}
+		return in;
+	}
+
+	private static File trace(File directory, long seed) {
+		return new File(directory, "seed-" + seed + ".trace");
+	}
+
+	/**
+	 * Usage: {@code GoldenRun record <directory> [ticks] [seed...]} or
+	 * {@code GoldenRun check <directory> [seed...]}<br>
+	 * Records the golden trace of each seed (1 by default) in
+	 * {@code seed-<seed>.trace}, running the parameters read by
+	 * {@link Configuration#fromParameters()}; or checks the current engine
+	 * against the traces of the given seeds (all of those in the directory by
+	 * default), and exits with -1 if any run diverges.<br>
+	 * The traces of the project are in {@code golden}, checked with
+	 * {@code GoldenRun check golden} (see {@code golden/ReadMe.txt}).
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2 || !(args[0].equals("record") || args[0].equals("check"))) {
+			System.err.println("Usage: GoldenRun record <directory> [ticks] [seed...]");
+			System.err.println("       GoldenRun check <directory> [seed...]");
+			System.exit(-1);
+		}
+
+		File directory = new File(args[1]);
+		if (args[0].equals("record")) {
+			int ticks = args.length > 2 ? Integer.parseInt(args[2]) : Properties.END_TICK;
+			long[] seeds = { 1 };
+			if (args.length > 3) {
+				seeds = new long[args.length - 3];
+				for (int i = 3; i < args.length; i++)
+					seeds[i - 3] = Long.parseLong(args[i]);
+			}
+
+			directory.mkdirs();
+			for (long seed : seeds) {
+				long start = System.currentTimeMillis();
+				HeadlessEngine engine = new HeadlessEngine(seed);
+				try {
+					record(engine, ticks, trace(directory, seed));
+				} finally {
+					engine.getEconomy().close();
+				}
+				System.out.println("seed " + seed + ": recorded " + ticks + " ticks in "
+						+ (System.currentTimeMillis() - start) + " ms");
+			}
+		} else {
+			List<File> traces = new ArrayList<File>();
+			for (int i = 2; i < args.length; i++)
+				traces.add(trace(directory, Long.parseLong(args[i])));
+			if (traces.isEmpty()) {
+				File[] files = directory.listFiles(new FilenameFilter() {
+					@Override
+					public boolean accept(File dir, String name) {
+						return name.startsWith("seed-") && name.endsWith(".trace");
+					}
+				});
+				if (files != null) {
+					Arrays.sort(files);
+					traces.addAll(Arrays.asList(files));
+				}
+			}
+
+			boolean diverged = false;
+			for (File trace : traces) {
+				long start = System.currentTimeMillis();
+				HeadlessEngine engine = engine(trace);
+				Divergence divergence;
+				try {
+					divergence = check(engine, trace);
+				} finally {
+					engine.getEconomy().close();
+				}
+				long time = System.currentTimeMillis() - start;
+				if (divergence == null)
+					System.out.println(trace.getName() + ": identical over " + engine.getTick() + " ticks in "
+							+ time + " ms");
+				else {
+					System.out.println(trace.getName() + ": diverges at " + divergence);
+					diverged = true;
+				}
+			}
+			if (diverged)
+				System.exit(-1);
+		}
+	}
+
+}
@@ -1,237 +1,481 @@
-package environment;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-
-import agents.Firm;
-import agents.Government;
-import utilities.Agent;
-import utilities.Good;
-import utilities.Properties;
-
-/**
- * @author Diogo L. Costa
- *
- */
-public class GoodsMarket {
-
-	private Map<Firm, ArrayList<Good>> goodsMapping = new HashMap<Firm, ArrayList<Good>>();
-
-	private Government government;
-	private float currentAveragePrice = 0;
-	private float previousAveragePrice = 0;
-	private boolean marketReady = false;
-	private boolean marketClose = false;
-	private int readyCount = 0;
-	private int closeCount = 0;
-
-	// Number of firms to be omitted from the Households
-	private int visibleFirms = (int) Math.round(Properties.FIRMS_NUMBER
-			* (1 - Properties.OMISSION_FACTOR));
-
-	/**
-	 * GoodsMarket can only be created in {@link SimBuilder}; throughout the
-	 * simulation NO AGENT is able to create an instance of this class.
-	 * 
-	 * @param government
-	 */
-	GoodsMarket(Government gov) {
-		government = gov;
-	}
-
-	/**
-	 * Searches the market for the cheapest goods while the utility of a good (
-	 * {@code initialUtility}) is superior to its cost.<br>
-	 * <i>The utility of a good <b>decreases</b></i> according to the number of
-	 * goods already bought (BG) and a reduction factor (
-	 * {@code Properties.UTILITY_REDUCTION ^ BG}).<br>
-	 * In order to provide some <i>stochasticity</i> in the market patterns and
-	 * prevent the buyer from always picking the same Firm, every time this
-	 * function is called <i>a percentage of the firms is randomly omitted</i>
-	 * according to {@link Properties}.{@code OMISSION_FACTOR}.
-	 * 
-	 * @param wageUtility
-	 *            the maximum utility of a good
-	 * @return the list of all the goods it was able to retrieve for the given
-	 *         {@code initialUtility}
-	 */
-	public List<Good> getCheapestGood(double maxUtility, double utilityReduction) {
-
-		List<Good> cart = new ArrayList<Good>();
-
-		List<Firm> firmsInMarket = new ArrayList<Firm>(goodsMapping.keySet());
-
-		if (!firmsInMarket.isEmpty()) {
-
-			visibleFirms = (int) Math.ceil(firmsInMarket.size()
-					* (1 - Properties.OMISSION_FACTOR));
-
-			List<Firm> visibleFirmsList = new LinkedList<Firm>();
-
-			// Random selection of which firms are to be omitted
-			Collections.shuffle(firmsInMarket);
-			for (int i = 0; i < visibleFirms; i++) {
-				visibleFirmsList.add(firmsInMarket.get(i));
-			}
-
-			Collections.sort(visibleFirmsList);
-			double cheapest = visibleFirmsList.get(0).getGoodsPrice();
-
-			List<Firm> shuffledFirms = new LinkedList<Firm>();
-			ArrayList<Firm> samePriceFirms = new ArrayList<Firm>();
-
-			// Shuffle firms selling goods at the same price to obtain different orders
-			for (Firm firm : visibleFirmsList) {
-
-				if (firm.getGoodsPrice() == cheapest) {
-					samePriceFirms.add(firm);
-				} else {
-					cheapest = firm.getGoodsPrice();
-					Collections.shuffle(samePriceFirms);
-					shuffledFirms.addAll(samePriceFirms);
-					samePriceFirms.clear();
-					samePriceFirms.add(firm);
-				}
-			}
-			shuffledFirms.addAll(samePriceFirms);
-
-			double goodUtility;
-
-			// Select the goods from the list of firms that are not omitted
-			for (Firm firm : shuffledFirms) {
-
-				for (Good good : goodsMapping.get(firm)) {
-
-					// u0 * b^j
-					goodUtility = (maxUtility * Math.pow(utilityReduction,
-							cart.size()));
-					if (goodUtility < good.getMarketPrice()) {
-						break;
-					}
-					cart.add(good);
-				}
-			}
-		}
-
-		return cart;
-	}
-
-	/**
-	 * Buys each good in the {@code cart} as long as the payment was successful
-	 * ({@code Bank.pay(...) == true}).<br>
-	 * This function also has the effect of removing firms from the market's
-	 * {@code firmsList} if a given firm has no more goods for sale.
-	 * 
-	 * @param cart
-	 *            the list of goods to buy
-	 * @param buyer
-	 *            the reference of the buyer
-	 * @return the amount of goods it was able to buy
-	 */
-	public List<Good> checkoutCart(List<Good> cart, Agent buyer) {
-
-		List<Good> trash = new ArrayList<Good>();
-
-		for (Good good : cart) {
-
-			Firm seller = good.getFirm();
-			if (Bank.pay(buyer, seller, good.getPrice())
-					&& government.payVAT(buyer, good.getPrice())) {
-				goodsMapping.get(seller).remove(good);
-				seller.notifySell(good);
-				if (goodsMapping.get(seller).isEmpty())
-					goodsMapping.remove(seller);
-			} else {
-				trash.add(good);
-			}
-		}
-		cart.removeAll(trash);
-
-		return cart;
-	}
-
-	/**
-	 * The seller ({@code firm}) subscribes to the {@link GoodsMarket} and makes
-	 * its goods available for sale by being added to the market's
-	 * {@code goodsMapping}.
-	 * 
-	 * @param firm
-	 *            the seller
-	 * @param goodsList
-	 *            the list of goods to put to sale
-	 * @return the number of goods put to sale
-	 */
-	public int putToSale(Firm firm, ArrayList<Good> goodsList) {
-		goodsMapping.put(firm, goodsList);
-		return goodsMapping.get(firm).size();
-	}
-
-	/**
-	 * Clears all the subscriptions made to the market if the {@code firm}
-	 * requesting the cleanse is currently subscribed.<br>
-	 * 
-	 * @param firm
-	 */
-	public void clearMarket() {
-		if (!goodsMapping.isEmpty())
-			goodsMapping.clear();
-	}
-
-	/**
-	 * It allows a Firm Agent to inform the market that its stock load is
-	 * complete.<br>
-	 * <br>
-	 * Once all firms have confirmed their stock in the {@linkplain GoodsMarket}
-	 * , the latter will set itself as <i>open for business</i> by changing
-	 * {@code marketReady} class field state. All agents listening to this
-	 * field, shall immediately visit the market and check out the new stock.
-	 */
-	public void confirmSale() {
-		readyCount++;
-		if (readyCount == Properties.getNumberOfOpenFirms()) {
-			marketReady = !marketReady;
-			readyCount = 0;
-		}
-	}
-
-	public void confirmVisit() {
-		closeCount++;
-		if (closeCount == Properties.getNumberOfHouseholds()) {
-			marketClose = !marketClose;
-			closeCount = 0;
-		}
-	}
-
-	public double getInflation() {
-
-		float sumPrices = 0;
-		float totalGoods = 0;
-		for (Entry<Firm, ArrayList<Good>> entry : goodsMapping.entrySet()) {
-			for (Good good : entry.getValue()) {
-				sumPrices += good.getPrice();
-				totalGoods++;
-			}
-		}
-
-		double inflation = 0;
-		currentAveragePrice = totalGoods > 0 ? sumPrices / totalGoods : 0;
-		if (previousAveragePrice != 0) {
-			inflation = (currentAveragePrice - previousAveragePrice)
-					/ previousAveragePrice;
-			previousAveragePrice = currentAveragePrice;
-			return inflation;
-		} else {
-			previousAveragePrice = currentAveragePrice;
-			return 0;
-		}
-	}
-
-	public final float getCurrentAvgPrice() {
-		return currentAveragePrice;
-	}
+package environment;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import agents.Firm;
+import agents.Government;
+import environment.Bank.BankAccount;
+import environment.TransferJournal.Kind;
+import utilities.Agent;
+import utilities.Cart;
+import utilities.Inventory;
+import utilities.Properties;
+import utilities.RandomStream;
+
+/**
+ * @author Diogo L. Costa
+ *
+ */
+public class GoodsMarket {
+
+	private Map<Firm, Inventory> goodsMapping = new HashMap<Firm, Inventory>();
+
+	// Firms with goods for sale, kept ordered by their lowest price
+	private List<Firm> orderBook = new ArrayList<Firm>();
+
+	// Source of the households' and the market's own random streams
+	private RandomStream random;
+
+	// Reusable buffers for settling carts
+	private BankAccount[] sellers = new BankAccount[0];
+	private float[] prices = new float[0];
+	private int[] quantities = new int[0];
+	private int[] sold = new int[0];
+
+	private final Economy economy;
+	private final Region region;
+	private final Bank bank;
+	private Government government;
+	private boolean marketReady = false;
+	private boolean marketClose = false;
+	private int readyCount = 0;
+	private int closeCount = 0;
+
+	/**
+	 * GoodsMarket can only be created in {@link Economy}; throughout the
+	 * simulation NO AGENT is able to create an instance of this class.
+	 * 
+	 * @param economy
+	 *            the run the market belongs to
+	 * @param region
+	 *            the region of the run the market belongs to
+	 * @param random
+	 *            the source of the market's random streams
+	 */
+	GoodsMarket(Economy economy, Region region, RandomStream random) {
+		this.economy = economy;
+		this.region = region;
+		this.random = random;
+		bank = economy.getBank();
+		government = region.getGovernment();
+	}
+
+	/**
+	 * Each buyer draws the firms it visits from its own stream, which keeps
+	 * the visits reproducible even when they are computed in parallel (see
+	 * {@link ParallelConsumption}).
+	 * 
+	 * @return a new random stream split from the market's stream
+	 */
+	public RandomStream newRandomStream() {
+		return random.split();
+	}
+
+	/**
+	 * Searches the market for the cheapest goods while the utility of a good (
+	 * {@code initialUtility}) is superior to its cost.<br>
+	 * <i>The utility of a good <b>decreases</b></i> according to the number of
+	 * goods already bought (BG) and a reduction factor (
+	 * {@code Properties.UTILITY_REDUCTION ^ BG}).<br>
+	 * In order to provide some <i>stochasticity</i> in the market patterns and
+	 * prevent the buyer from always picking the same Firm, every time this
+	 * function is called <i>a percentage of the firms is randomly omitted</i>
+	 * according to {@link Properties}.{@code OMISSION_FACTOR}.
+	 * 
+	 * @param wageUtility
+	 *            the maximum utility of a good
+	 * @param cart
+	 *            the buyer's cart, emptied before being filled
+	 * @param random
+	 *            the buyer's random stream
+	 * @return the {@code cart} with all the goods it was able to retrieve for
+	 *         the given {@code initialUtility}
+	 */
+	public Cart getCheapestGood(double maxUtility, double utilityReduction, Cart cart,
+			RandomStream random) {
+
+		cart.clear();
+		int cartSize = 0;
+
+		int firmsInMarket = orderBook.size();
+
+		if (firmsInMarket > 0) {
+
+			// Number of firms not omitted from the Household
+			int visibleFirms = (int) Math.ceil(firmsInMarket
+					* (1 - Properties.OMISSION_FACTOR));
+
+			// Random selection of which firms are to be omitted; since the
+			// book is already ordered by price, sorting the sampled positions
+			// yields the visible firms from the cheapest to the most expensive
+			int[] positions = sampleBookPositions(firmsInMarket, visibleFirms, cart, random);
+			Firm[] shuffledFirms = cart.getVisibleBuffer(visibleFirms);
+			for (int i = 0; i < visibleFirms; i++) {
+				shuffledFirms[i] = orderBook.get(positions[i]);
+			}
+
+			// Shuffle firms selling goods at the same price to obtain different orders
+			int samePriceStart = 0;
+			for (int i = 1; i <= visibleFirms; i++) {
+				if (i == visibleFirms
+						|| shuffledFirms[i].getGoodsPrice() != shuffledFirms[samePriceStart]
+								.getGoodsPrice()) {
+					shuffle(shuffledFirms, samePriceStart, i, random);
+					samePriceStart = i;
+				}
+			}
+
+			double goodUtility;
+
+			// Select the goods from the list of firms that are not omitted
+			for (int i = 0; i < visibleFirms; i++) {
+
+				Firm firm = shuffledFirms[i];
+				Inventory stock = goodsMapping.get(firm);
+				boolean affordable = true;
+
+				for (int tier = 0; tier < stock.getTiers() && affordable; tier++) {
+
+					float price = stock.getPrice(tier);
+					float marketPrice = price * (1 + economy.getConfiguration().getIVA());
+					int quantity = 0;
+
+					while (quantity < stock.getQuantity(tier)) {
+						// u0 * b^j
+						goodUtility = (maxUtility * Math.pow(utilityReduction,
+								cartSize));
+						if (goodUtility < marketPrice) {
+							affordable = false;
+							break;
+						}
+						quantity++;
+						cartSize++;
+					}
+
+					if (quantity > 0)
+						cart.add(firm, tier, price, quantity);
+				}
+			}
+		}
+
+		return cart;
+	}
+
+	/**
+	 * Buys each good in the {@code cart} as long as the payment was successful
+	 * ({@code bank.pay(...) == true}).<br>
+	 * This function also has the effect of removing firms from the market's
+	 * {@code firmsList} if a given firm has no more goods for sale.
+	 * 
+	 * @param cart
+	 *            the goods to buy; each line is left with the quantity that was
+	 *            actually bought
+	 * @param buyer
+	 *            the reference of the buyer
+	 * @return the amount of goods it was able to buy
+	 */
+	public int checkoutCart(Cart cart, Agent buyer) {
+
+		if (Properties.CART_SETTLEMENT)
+			return settleCart(cart, buyer);
+
+		int bought = 0;
+
+		for (int line = 0; line < cart.getLines(); line++) {
+
+			Firm seller = cart.getFirm(line);
+			float price = cart.getPrice(line);
+			int quantity = getAvailable(cart, line);
+			int sold = 0;
+
+			for (int i = 0; i < quantity; i++) {
+				if (bank.pay(Kind.PURCHASE, buyer, seller, price)
+						&& government.payVAT(buyer, price)) {
+					seller.notifySell(price, 1);
+					sold++;
+				}
+			}
+
+			removeSold(cart, line, sold);
+			bought += sold;
+		}
+
+		return bought;
+	}
+
+	/**
+	 * Cart-level version of {@link #checkoutCart(Cart, Agent)}: the whole
+	 * {@code cart} is settled with a single call to the {@linkplain Bank}
+	 * (see {@link Bank#purchase}), which debits the buyer once, credits each
+	 * seller once per line and charges the VAT once. The balances and the
+	 * goods sold are the same as when buying one good at a time.
+	 * 
+	 * @param cart
+	 * @param buyer
+	 * @return the amount of goods it was able to buy
+	 */
+	private int settleCart(Cart cart, Agent buyer) {
+
+		int lines = cart.getLines();
+		if (lines == 0)
+			return 0;
+
+		if (sellers.length < lines) {
+			sellers = new BankAccount[lines];
+			prices = new float[lines];
+			quantities = new int[lines];
+			sold = new int[lines];
+		}
+		for (int line = 0; line < lines; line++) {
+			sellers[line] = cart.getFirm(line).getAccount();
+			prices[line] = cart.getPrice(line);
+			quantities[line] = getAvailable(cart, line);
+		}
+
+		long vat = bank.purchase(buyer.getAccount(), sellers, prices, quantities, sold, lines,
+				government.getAccount(), economy.getConfiguration().getIVA());
+		government.postVAT(vat);
+
+		int bought = 0;
+		for (int line = 0; line < lines; line++) {
+			if (sold[line] > 0)
+				cart.getFirm(line).notifySell(prices[line], sold[line]);
+			removeSold(cart, line, sold[line]);
+			bought += sold[line];
+		}
+
+		return bought;
+	}
+
+	/**
+	 * A cart filled while other buyers were shopping (see
+	 * {@link ParallelConsumption}) may ask for goods that have been sold in
+	 * the meantime.
+	 * 
+	 * @return the quantity of a {@code cart} line still available for sale
+	 */
+	private int getAvailable(Cart cart, int line) {
+		Inventory stock = goodsMapping.get(cart.getFirm(line));
+		if (stock == null)
+			return 0;
+		return Math.min(cart.getQuantity(line), stock.getQuantity(cart.getTier(line)));
+	}
+
+	/**
+	 * Takes the {@code sold} goods of a {@code cart} line out of the seller's
+	 * stock, and the seller out of the market once it has nothing left.
+	 */
+	private void removeSold(Cart cart, int line, int sold) {
+		if (sold > 0) {
+			Firm seller = cart.getFirm(line);
+			Inventory stock = goodsMapping.get(seller);
+			stock.remove(cart.getTier(line), sold);
+			if (stock.isEmpty()) {
+				goodsMapping.remove(seller);
+				removeFromBook(seller);
+			}
+		}
+		cart.setQuantity(line, sold);
+	}
+
+	/**
+	 * The seller ({@code firm}) subscribes to the {@link GoodsMarket} and makes
+	 * its goods available for sale by being added to the market's
+	 * {@code goodsMapping}.
+	 * 
+	 * @param firm
+	 *            the seller
+	 * @param stock
+	 *            the goods to put to sale
+	 * @return the number of goods put to sale
+	 */
+	public int putToSale(Firm firm, Inventory stock) {
+		if (goodsMapping.put(firm, stock) != null)
+			removeFromBook(firm);
+		addToBook(firm);
+		return goodsMapping.get(firm).size();
+	}
+
+	/**
+	 * Clears all the subscriptions made to the market if the {@code firm}
+	 * requesting the cleanse is currently subscribed.<br>
+	 * 
+	 * @param firm
+	 */
+	public void clearMarket() {
+		if (!goodsMapping.isEmpty()) {
+			goodsMapping.clear();
+			orderBook.clear();
+		}
+	}
+
+	/**
+	 * Takes the offers of a random {@code fraction} of the sellers out of the
+	 * market, see {@linkplain Region}.
+	 * 
+	 * @return the stock of each seller taken out, from the cheapest seller
+	 */
+	Map<Firm, Inventory> withdraw(double fraction, RandomStream random) {
+		Map<Firm, Inventory> withdrawn = new LinkedHashMap<Firm, Inventory>();
+		List<Firm> kept = new ArrayList<Firm>(orderBook.size());
+		for (Firm firm : orderBook) {
+			if (random.nextDouble() < fraction)
+				withdrawn.put(firm, goodsMapping.remove(firm));
+			else
+				kept.add(firm);
+		}
+		orderBook = kept;
+		return withdrawn;
+	}
+
+	/**
+	 * Inserts the {@code firm} in the {@code orderBook} at the position given
+	 * by its lowest price (see {@link Firm#compareTo(Firm)}).
+	 * 
+	 * @param firm
+	 */
+	private void addToBook(Firm firm) {
+		int position = Collections.binarySearch(orderBook, firm);
+		if (position < 0)
+			orderBook.add(-position - 1, firm);
+	}
+
+	/**
+	 * Removes the {@code firm} from the {@code orderBook}, e.g. once it has no
+	 * more goods for sale.<br>
+	 * The firm is looked up by its lowest price, which may have changed since
+	 * it was inserted (see {@link Firm#compareTo(Firm)}); if it is not found
+	 * there, the book is scanned for it.
+	 * 
+	 * @param firm
+	 */
+	private void removeFromBook(Firm firm) {
+		int position = Collections.binarySearch(orderBook, firm);
+		if (position < 0 || orderBook.get(position) != firm) {
+			position = -1;
+			for (int i = 0; i < orderBook.size() && position < 0; i++) {
+				if (orderBook.get(i) == firm)
+					position = i;
+			}
+		}
+		if (position >= 0)
+			orderBook.remove(position);
+	}
+
+	/**
+	 * Draws {@code k} distinct positions of the {@code orderBook} uniformly at
+	 * random (Floyd's algorithm) and returns them in ascending order, i.e. from
+	 * the cheapest to the most expensive firm.
+	 * 
+	 * @param n
+	 *            the number of firms in the book
+	 * @param k
+	 *            the number of firms to sample
+	 * @param cart
+	 *            the buyer's cart, which holds the sampling buffers
+	 * @param random
+	 *            the buyer's random stream
+	 * @return an array whose first {@code k} positions hold the sample
+	 */
+	private int[] sampleBookPositions(int n, int k, Cart cart, RandomStream random) {
+		boolean[] sampled = cart.getSampledBuffer(n);
+		int[] sample = cart.getSampleBuffer(k);
+
+		int count = 0;
+		for (int j = n - k; j < n; j++) {
+			int t = random.nextInt(j + 1);
+			if (sampled[t])
+				t = j;
+			sampled[t] = true;
+			sample[count++] = t;
+		}
+		Arrays.sort(sample, 0, k);
+		for (int i = 0; i < k; i++)
+			sampled[sample[i]] = false;
+
+		return sample;
+	}
+
+	private void shuffle(Firm[] firms, int from, int to, RandomStream random) {
+		for (int i = to - 1; i > from; i--) {
+			int j = from + random.nextInt(i - from + 1);
+			Firm tmp = firms[i];
+			firms[i] = firms[j];
+			firms[j] = tmp;
+		}
+	}
+
+
+	/**
+	 * It allows a Firm Agent to inform the market that its stock load is
+	 * complete.<br>
+	 * <br>
+	 * Once all firms have confirmed their stock in the {@linkplain GoodsMarket}
+	 * , the latter will set itself as <i>open for business</i> by changing
+	 * {@code marketReady} class field state. All agents listening to this
+	 * field, shall immediately visit the market and check out the new stock.
+	 */
+	public void confirmSale() {
+		readyCount++;
+		if (readyCount == region.getNumberOfOpenFirms()) {
+			marketReady = !marketReady;
+			readyCount = 0;
+		}
+	}
+
+	public void confirmVisit() {
+		closeCount++;
+		if (closeCount == region.getNumberOfHouseholds()) {
+			marketClose = !marketClose;
+			closeCount = 0;
+		}
+	}
+
+	/**
+	 * Adds the value of the goods for sale to {@code totals[0]} and their
+	 * number to {@code totals[1]}, see
+	 * {@link StatisticsManager#getInflation()}. The offers are summed in the
+	 * order of the {@code orderBook}, which does not depend on the identity of
+	 * the firms, so a restored run sums them as the original one.
+	 */
+	void sumOffers(float[] totals) {
+		for (Firm firm : orderBook) {
+			Inventory stock = goodsMapping.get(firm);
+			for (int tier = 0; tier < stock.getTiers(); tier++) {
+				totals[0] += stock.getPrice(tier) * stock.getQuantity(tier);
+				totals[1] += stock.getQuantity(tier);
+			}
+		}
+	}
+
+	/**
+	 * Writes the state the market carries from one tick to the next. The
+	 * offers are not written: every tick starts by clearing them.
+	 */
+	void writeState(DataOutput out) throws IOException {
+		out.writeLong(random.getSeed());
+		out.writeLong(random.getGamma());
+		out.writeBoolean(marketReady);
+		out.writeBoolean(marketClose);
+		out.writeInt(readyCount);
+		out.writeInt(closeCount);
+	}
+
+	void readState(DataInput in) throws IOException {
+		long seed = in.readLong();
+		random = new RandomStream(seed, in.readLong());
+		marketReady = in.readBoolean();
+		marketClose = in.readBoolean();
+		readyCount = in.readInt();
+		closeCount = in.readInt();
+	}
 }
\ No newline at end of file
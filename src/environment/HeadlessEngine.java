@@ -0,0 +1,429 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+import javax.management.JMException;
+
+import agents.Firm;
+import agents.Household;
+import environment.StageProfiler.Probe;
+import utilities.Configuration;
+import utilities.Properties;
+
+/**
+ * Runs the simulation without the Repast runtime.<br>
+ * Under Repast, the economic cycle is chained by {@code @Watch} triggers: each
+ * agent flips a field once it is done and the agents watching it start the
+ * next stage. This engine calls the very same stage methods explicitly, in the
+ * order those triggers produce, once per tick:
+ * <ol>
+ * <li>planning - {@link Firm#planingStage()}</li>
+ * <li>labor application - {@link Household#jobApplicationStage()}</li>
+ * <li>recruiting - {@link Firm#recruitingStage()}</li>
+ * <li>redistribution - {@link agents.Government#Redistribute()}</li>
+ * <li>production - {@link Firm#productionStage()}</li>
+ * <li>consumption - {@link Household#needsManagementStage()} or
+ * {@link ParallelConsumption#consumptionStage()}</li>
+ * <li>accounting - {@link Firm#accountingStage()}</li>
+ * <li>statistics - {@link StatisticsManager#calculateStatistics()}, at the
+ * point of the accounting stage where the firms end the cycle</li>
+ * </ol>
+ * Agents are visited in the order they were created. The parameters of the
+ * run are given as a {@linkplain Configuration} or read from the system
+ * properties (e.g. {@code -Dhhnumber=500}).<br>
+ * In a run sharded in several {@linkplain Region}s, the labor application,
+ * recruiting, production and consumption stages run on a thread per region,
+ * each region visiting its own agents in order, and the regions exchange part
+ * of their markets before the recruiting and the consumption.
+ *
+ */
+public class HeadlessEngine {
+
+	/**
+	 * The stages of an economic cycle, in the order they are run.
+	 */
+	public enum Stage {
+		PLANNING, LABOR_APPLICATION, RECRUITING, REDISTRIBUTION, PRODUCTION, CONSUMPTION, ACCOUNTING
+	}
+
+	private final Economy economy;
+	private StageProfiler profiler = StageProfiler.DISABLED;
+	private int tick = 0;
+
+	/**
+	 * Creates a run with the parameters read by
+	 * {@link Configuration#fromParameters()}.
+	 */
+	public HeadlessEngine(long seed) {
+		this(Configuration.fromParameters(), seed);
+	}
+
+	public HeadlessEngine(Configuration configuration, long seed) {
+		economy = new Economy(configuration, seed);
+	}
+
+	/**
+	 * Resumes the run of the {@code economy} after the given {@code tick}, see
+	 * {@linkplain Checkpoint}.
+	 */
+	HeadlessEngine(Economy economy, int tick) {
+		this.economy = economy;
+		this.tick = tick;
+	}
+
+	/**
+	 * Runs one whole economic cycle.
+	 */
+	public void step() {
+		tick++;
+		for (Stage stage : Stage.values())
+			runStage(stage);
+		profiler.endTick(tick);
+	}
+
+	/**
+	 * Runs a single stage of the current cycle. The stages of a cycle must be
+	 * run in the order of {@link Stage}; {@link #step()} does so and keeps
+	 * count of the ticks.
+	 *
+	 * @param stage
+	 */
+	public void runStage(Stage stage) {
+		TransferJournal journal = economy.getBank().getJournal();
+		if (journal != null)
+			journal.mark(economy.getIteration(), stage);
+
+		switch (stage) {
+		case PLANNING:
+			planningStage();
+			break;
+		case LABOR_APPLICATION:
+			laborApplicationStage();
+			break;
+		case RECRUITING:
+			recruitingStage();
+			break;
+		case REDISTRIBUTION:
+			redistributionStage();
+			break;
+		case PRODUCTION:
+			productionStage();
+			break;
+		case CONSUMPTION:
+			consumptionStage();
+			break;
+		case ACCOUNTING:
+			accountingStage();
+			break;
+		}
+	}
+
+	/**
+	 * Runs {@code ticks} economic cycles, writing the main indicators of each
+	 * one to {@code out} (if not {@code null}) as comma separated values.
+	 */
+	public void run(int ticks, PrintStream out) {
+		if (out != null)
+			out.println("tick,GDP,ProductionOutput,EmploymentRate,AverageWage,Inflation,"
+					+ "GiniIncome,GiniWage,GiniConsumption,GiniFunds,GovFunds");
+
+		for (int i = 0; i < ticks; i++) {
+			step();
+			if (out != null) {
+				StatisticsManager sm = economy.getStatistics();
+				out.println(tick + "," + sm.getGDP() + "," + sm.getProductionOutput() + ","
+						+ sm.getEmploymentRate() + "," + sm.getAverageWage() + ","
+						+ sm.getInflation() + "," + sm.getGiniIndexIncome() + "," + sm.getGiniIndexWage() + ","
+						+ sm.getGiniIndexConsumption() + "," + sm.getGiniIndexFunds() + "," + sm.getGovFunds());
+			}
+		}
+	}
+
+	/**
+	 * Runs {@code ticks} economic cycles, appending the indicators of each one
+	 * to the {@code sink}.
+	 *
+	 * @throws IOException
+	 *             if the sink cannot be written
+	 */
+	public void run(int ticks, StatisticsSink sink) throws IOException {
+		for (int i = 0; i < ticks; i++) {
+			step();
+			sink.append(tick, economy.getStatistics());
+		}
+	}
+
+	private void planningStage() {
+		profiler.enter(Probe.PLANNING);
+		// the offers moved to a region are not cleared by its own firms
+		if (economy.isSharded()) {
+			for (Region region : economy.getRegions())
+				region.clearMarkets();
+		}
+		for (Firm firm : economy.getFirms()) {
+			long start = profiler.start();
+			firm.planingStage();
+			profiler.stop(Probe.PLANNING, start);
+		}
+		profiler.exit();
+	}
+
+	private void laborApplicationStage() {
+		profiler.enter(Probe.LABOR_APPLICATION);
+		if (economy.isSharded()) {
+			long start = profiler.start();
+			runRegions(Stage.LABOR_APPLICATION);
+			profiler.stop(Probe.LABOR_APPLICATION, start);
+		} else {
+			for (Household hh : economy.getHouseholds()) {
+				long start = profiler.start();
+				hh.jobApplicationStage();
+				profiler.stop(Probe.LABOR_APPLICATION, start);
+			}
+		}
+		profiler.exit();
+	}
+
+	private void recruitingStage() {
+		profiler.enter(Probe.RECRUITING);
+		if (economy.isSharded()) {
+			long start = profiler.start();
+			runRegions(Stage.RECRUITING);
+			profiler.stop(Probe.RECRUITING, start);
+		} else {
+			for (Firm firm : economy.getFirms()) {
+				long start = profiler.start();
+				firm.recruitingStage();
+				profiler.stop(Probe.RECRUITING, start);
+			}
+		}
+		profiler.exit();
+	}
+
+	private void redistributionStage() {
+		profiler.enter(Probe.REDISTRIBUTION);
+		long start = profiler.start();
+		economy.getGovernment().Redistribute();
+		profiler.stop(Probe.REDISTRIBUTION, start);
+		profiler.exit();
+	}
+
+	private void productionStage() {
+		profiler.enter(Probe.PRODUCTION);
+		if (economy.isSharded()) {
+			long start = profiler.start();
+			runRegions(Stage.PRODUCTION);
+			profiler.stop(Probe.PRODUCTION, start);
+		} else {
+			for (Firm firm : economy.getFirms()) {
+				long start = profiler.start();
+				firm.productionStage();
+				profiler.stop(Probe.PRODUCTION, start);
+			}
+		}
+		profiler.exit();
+	}
+
+	private void consumptionStage() {
+		profiler.enter(Probe.CONSUMPTION);
+		if (economy.isSharded()) {
+			long start = profiler.start();
+			runRegions(Stage.CONSUMPTION);
+			profiler.stop(Probe.CONSUMPTION, start);
+		} else if (economy.getConsumption() != null) {
+			// a single call for every household, see ParallelConsumption
+			long start = profiler.start();
+			economy.getConsumption().consumptionStage();
+			profiler.stop(Probe.CONSUMPTION, start);
+		} else {
+			for (Household hh : economy.getHouseholds()) {
+				long start = profiler.start();
+				hh.needsManagementStage();
+				profiler.stop(Probe.CONSUMPTION, start);
+			}
+		}
+		profiler.exit();
+	}
+
+	private void accountingStage() {
+		profiler.enter(Probe.ACCOUNTING);
+		for (Firm firm : economy.getFirms()) {
+			if (firm.getStatus()) {
+				long start = profiler.start();
+				firm.accountingStage();
+				profiler.stop(Probe.ACCOUNTING, start);
+
+				// same condition under which the firm flips endCycle
+				if (economy.getNumberOfOpenFirms() == economy.getIterationLoad()) {
+					if (economy.isSharded())
+						collectTaxes();
+					profiler.enter(Probe.STATISTICS);
+					statisticsStage();
+					profiler.enter(Probe.ACCOUNTING);
+				}
+			}
+		}
+		profiler.exit();
+	}
+
+	/**
+	 * Runs a stage on a thread per region, exchanging part of the regions'
+	 * markets beforehand and collecting their taxes afterwards (see
+	 * {@linkplain Region}).
+	 */
+	private void runRegions(Stage stage) {
+		List<Region> regions = economy.getRegions();
+		float visibility = economy.getConfiguration().getVisibility();
+		if (stage == Stage.RECRUITING)
+			Region.exchangeApplicants(regions, visibility);
+		else if (stage == Stage.CONSUMPTION)
+			Region.exchangeOffers(regions, visibility);
+
+		StatisticsManager statistics = economy.getStatistics();
+		statistics.freeze();
+		try {
+			economy.getRegionPool().invoke(new Regions(regions, stage, 0, regions.size()));
+		} finally {
+			statistics.thaw();
+		}
+		collectTaxes();
+	}
+
+	private void collectTaxes() {
+		for (Region region : economy.getRegions())
+			economy.getGovernment().collect(region.getGovernment());
+	}
+
+	private static final class Regions extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Region> regions;
+		private final Stage stage;
+		private final int from;
+		private final int to;
+
+		Regions(List<Region> regions, Stage stage, int from, int to) {
+			this.regions = regions;
+			this.stage = stage;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1)
+				regions.get(from).runStage(stage);
+			else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Regions(regions, stage, from, middle), new Regions(regions, stage, middle, to));
+			}
+		}
+	}
+
+	private void statisticsStage() {
+		long start = profiler.start();
+		economy.getStatistics().calculateStatistics();
+		profiler.stop(Probe.STATISTICS, start);
+	}
+
+	/**
+	 * Instruments the stages of the following ticks with the given
+	 * {@code profiler}.
+	 *
+	 * @param profiler
+	 *            the profiler, or {@code null} to stop profiling
+	 */
+	public void setProfiler(StageProfiler profiler) {
+		this.profiler = profiler != null ? profiler : StageProfiler.DISABLED;
+	}
+
+	public final Economy getEconomy() {
+		return economy;
+	}
+
+	public final int getTick() {
+		return tick;
+	}
+
+	/**
+	 * Usage: {@code HeadlessEngine [ticks] [seed]}<br>
+	 * Runs the economy up to the tick {@code ticks}. With
+	 * {@code -Drestore=<file>}, the run resumes from the checkpoint in the file
+	 * (and the seed is the checkpoint's); with {@code -Dcheckpoint=<file>}, the
+	 * state after the last tick is saved to the file (see
+	 * {@linkplain Checkpoint}).<br>
+	 * With {@code -Dprofile=<file>}, the stages are profiled: the metrics of
+	 * each tick are written to the file and the totals are published as an
+	 * MBean (see {@linkplain StageProfiler}). With {@code -Dstats=<file>}, the
+	 * indicators are written to the file in binary (see
+	 * {@linkplain StatisticsSink}) instead of the standard output. With
+	 * {@code -Djournal=<file>}, every payment is recorded in the file (see
+	 * {@linkplain TransferJournal}).
+	 */
+	public static void main(String[] args) throws IOException, JMException {
+		int ticks = args.length > 0 ? Integer.parseInt(args[0]) : Properties.END_TICK;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+		String profile = System.getProperty("profile");
+		String stats = System.getProperty("stats");
+		String restore = System.getProperty("restore");
+		String checkpoint = System.getProperty("checkpoint");
+		String journal = System.getProperty("journal");
+
+		HeadlessEngine engine = restore != null ? Checkpoint.restore(new File(restore)) : new HeadlessEngine(seed);
+		seed = engine.getEconomy().getSeed();
+		ticks -= engine.getTick();
+
+		try {
+			TransferJournal transfers = journal != null ? new TransferJournal(new File(journal)) : null;
+			engine.getEconomy().getBank().setJournal(transfers);
+			try {
+				if (profile == null)
+					engine.output(ticks, stats);
+				else {
+					PrintStream csv = new PrintStream(new BufferedOutputStream(new FileOutputStream(profile)));
+					StageProfiler profiler = new StageProfiler(csv);
+					profiler.register("seed-" + seed);
+					engine.setProfiler(profiler);
+					try {
+						engine.output(ticks, stats);
+					} finally {
+						profiler.unregister();
+						csv.close();
+					}
+				}
+			} finally {
+				if (transfers != null)
+					transfers.close();
+			}
+
+			if (checkpoint != null)
+				Checkpoint.save(engine, new File(checkpoint));
+		} finally {
+			engine.getEconomy().close();
+		}
+	}
+
+	private void output(int ticks, String stats) throws IOException {
+		if (stats == null)
+			run(ticks, System.out);
+		else {
+			StatisticsSink sink = new StatisticsSink(new File(stats), Properties.END_TICK);
+			try {
+				run(ticks, sink);
+			} finally {
+				sink.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,235 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import environment.Bank.BankAccount;
+import utilities.Configuration;
+import utilities.Money;
+import utilities.Properties;
+
+/**
+ * The state of all the households of a run, kept in columns.<br>
+ * Each {@linkplain agents.Household} is a view over one row of the store: its
+ * employment state, wages, reservation wage, productivity and consumption live
+ * in primitive arrays indexed by that row, and its funds in the
+ * {@linkplain Bank}'s ledger. The passes over every household, i.e. the
+ * redistribution and the statistics, then run as plain loops over arrays
+ * instead of visiting one object, its job contract and its bank account at a
+ * time.
+ *
+ */
+public final class HouseholdStore {
+
+	private final Bank bank;
+	private final Configuration configuration;
+	private int size = 0;
+
+	private int[] account = new int[64];
+	private boolean[] employed = new boolean[64];
+	private float[] wage = new float[64];
+	private float[] lastWage = new float[64];
+	private int[] unemployedTime = new int[64];
+	private float[] reservationWage = new float[64];
+	private float[] productivity = new float[64];
+	private int[] consumption = new int[64];
+
+	HouseholdStore(Bank bank, Configuration configuration) {
+		this.bank = bank;
+		this.configuration = configuration;
+	}
+
+	/**
+	 * Adds a row for a new household, unemployed and with no consumption.
+	 *
+	 * @return the row of the household
+	 */
+	public int add(BankAccount bankAccount, float initialReservationWage, float initialProductivity) {
+		if (size == account.length)
+			grow();
+
+		account[size] = bankAccount.getId();
+		reservationWage[size] = initialReservationWage;
+		productivity[size] = initialProductivity;
+		return size++;
+	}
+
+	private void grow() {
+		int capacity = account.length * 2;
+		account = Arrays.copyOf(account, capacity);
+		employed = Arrays.copyOf(employed, capacity);
+		wage = Arrays.copyOf(wage, capacity);
+		lastWage = Arrays.copyOf(lastWage, capacity);
+		unemployedTime = Arrays.copyOf(unemployedTime, capacity);
+		reservationWage = Arrays.copyOf(reservationWage, capacity);
+		productivity = Arrays.copyOf(productivity, capacity);
+		consumption = Arrays.copyOf(consumption, capacity);
+	}
+
+	void writeState(DataOutput out) throws IOException {
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeBoolean(employed[i]);
+			out.writeFloat(wage[i]);
+			out.writeFloat(lastWage[i]);
+			out.writeInt(unemployedTime[i]);
+			out.writeFloat(reservationWage[i]);
+			out.writeFloat(productivity[i]);
+			out.writeInt(consumption[i]);
+		}
+	}
+
+	void readState(DataInput in) throws IOException {
+		int count = in.readInt();
+		if (count != size)
+			throw new IOException("The checkpoint holds " + count + " households, the store " + size);
+		for (int i = 0; i < size; i++) {
+			employed[i] = in.readBoolean();
+			wage[i] = in.readFloat();
+			lastWage[i] = in.readFloat();
+			unemployedTime[i] = in.readInt();
+			reservationWage[i] = in.readFloat();
+			productivity[i] = in.readFloat();
+			consumption[i] = in.readInt();
+		}
+	}
+
+	/**
+	 * @return the number of households
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the position in the ledger of the household's account
+	 */
+	public int getAccount(int row) {
+		return account[row];
+	}
+
+	/**
+	 * @return a copy of the positions in the ledger of every household's
+	 *         account, by row
+	 */
+	public int[] getAccounts() {
+		return Arrays.copyOf(account, size);
+	}
+
+	public float getBalance(int row) {
+		return Money.toFloat(bank.getMicros(account[row]));
+	}
+
+	/**
+	 * @return the household's funds, in micro-units (see {@linkplain Money})
+	 */
+	public long getMicros(int row) {
+		return bank.getMicros(account[row]);
+	}
+
+	public boolean isEmployed(int row) {
+		return employed[row];
+	}
+
+	public void setEmployed(int row, boolean state) {
+		employed[row] = state;
+	}
+
+	/**
+	 * @return the current pay check, 0 if unemployed
+	 */
+	public float getWage(int row) {
+		return wage[row];
+	}
+
+	public void setWage(int row, float value) {
+		wage[row] = value;
+	}
+
+	public float getLastWage(int row) {
+		return lastWage[row];
+	}
+
+	public void setLastWage(int row, float value) {
+		lastWage[row] = value;
+	}
+
+	public int getUnemployedTime(int row) {
+		return unemployedTime[row];
+	}
+
+	public void setUnemployedTime(int row, int time) {
+		unemployedTime[row] = time;
+	}
+
+	public float getReservationWage(int row) {
+		return reservationWage[row];
+	}
+
+	public void setReservationWage(int row, float value) {
+		reservationWage[row] = value;
+	}
+
+	public float getProductivity(int row) {
+		return productivity[row];
+	}
+
+	public void setProductivity(int row, float value) {
+		productivity[row] = value;
+	}
+
+	public int getConsumption(int row) {
+		return consumption[row];
+	}
+
+	public void setConsumption(int row, int value) {
+		consumption[row] = value;
+	}
+
+	public float getETCIncome(int row) {
+		return configuration.getEarnedTaxCredit() * Properties.calculateEarnedTaxCredit(wage[row]);
+	}
+
+	public float getUnemployedBenefit(int row) {
+		if (unemployedTime[row] > Properties.UNEMPLOYED_TIME) {
+			return configuration.getMinBenefit() * Properties.MIN_WAGE * (1 - configuration.getIRS());
+		} else if (unemployedTime[row] > 0)
+			return lastWage[row] * configuration.getUnemployedBenefit();
+		else
+			return 0;
+	}
+
+	public float getIncome(int row) {
+		return getETCIncome(row) + getUnemployedBenefit(row) + (wage[row] * (1 - configuration.getIRS()));
+	}
+
+	/**
+	 * @return the number of employed households
+	 */
+	public int getEmployed() {
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (employed[i])
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the lowest reservation wage among all households
+	 */
+	public float getLowestReservationWage() {
+		float lowest = Float.MAX_VALUE;
+		for (int i = 0; i < size; i++) {
+			if (reservationWage[i] < lowest)
+				lowest = reservationWage[i];
+		}
+		return lowest;
+	}
+
+}
@@ -0,0 +1,244 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import environment.TransferJournal.Kind;
+import utilities.Money;
+
+/**
+ * Loads the files written by a {@linkplain TransferJournal} and adds up the
+ * payments they record, by {@linkplain Kind} and by account.<br>
+ * Each segment of the file is memory mapped and its records are read in
+ * place. A segment whose number of records was not written, because the run
+ * did not close its journal, is read up to its first empty record.
+ *
+ */
+public class JournalReader {
+
+	/**
+	 * Visits the records of a journal, see
+	 * {@link JournalReader#scan(int, int, Visitor)}.
+	 */
+	public interface Visitor {
+		/**
+		 * @param tick
+		 * @param stage
+		 *            the ordinal of the {@linkplain HeadlessEngine.Stage}, or
+		 *            -1 outside the cycle
+		 * @param kind
+		 * @param drawee
+		 *            the position of the drawee's account in the ledger, or -1
+		 * @param recepient
+		 *            the position of the recepient's account in the ledger, or
+		 *            -1
+		 * @param micros
+		 *            the amount paid, in micro-units
+		 */
+		void visit(int tick, int stage, Kind kind, int drawee, int recepient, long micros);
+	}
+
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	/**
+	 * @param file
+	 *            a file written by a {@linkplain TransferJournal}
+	 * @throws IOException
+	 *             if the file cannot be mapped or is not a journal
+	 */
+	public JournalReader(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = input.getChannel();
+			long length = channel.size();
+			long position = 0;
+			while (position + TransferJournal.HEADER <= length) {
+				MappedByteBuffer header = map(channel, position, TransferJournal.HEADER);
+				if (header.getInt(0) != TransferJournal.MAGIC || header.getShort(4) != TransferJournal.VERSION
+						|| header.getShort(6) != TransferJournal.RECORD)
+					throw new IOException("Not a transfer journal: " + file);
+
+				int size = TransferJournal.segmentSize(header.getInt(8));
+				segments.add(map(channel, position, (int) Math.min(size, length - position)));
+				position += size;
+			}
+		} finally {
+			// the mappings outlive the channel
+			input.close();
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long position, int size) throws IOException {
+		MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	/**
+	 * Visits, in the order they were recorded, the records of the ticks
+	 * {@code from} to {@code to} (both included).
+	 */
+	public void scan(int from, int to, Visitor visitor) {
+		for (MappedByteBuffer segment : segments) {
+			int count = segment.getInt(TransferJournal.RECORDS);
+			if (count == 0)
+				count = (segment.capacity() - TransferJournal.HEADER) / TransferJournal.RECORD;
+
+			for (int i = 0; i < count; i++) {
+				int at = TransferJournal.HEADER + i * TransferJournal.RECORD;
+				int kind = segment.get(at + 21);
+				if (kind == 0)
+					return;
+
+				int tick = segment.getInt(at + 8);
+				if (tick >= from && tick <= to)
+					visitor.visit(tick, segment.get(at + 20), TransferJournal.KINDS[kind - 1],
+							segment.getInt(at + 12), segment.getInt(at + 16), segment.getLong(at));
+			}
+		}
+	}
+
+	/**
+	 * @return the number of records in the file
+	 */
+	public long getRecords() {
+		final long[] records = new long[1];
+		scan(Integer.MIN_VALUE, Integer.MAX_VALUE, new Visitor() {
+			@Override
+			public void visit(int tick, int stage, Kind kind, int drawee, int recepient, long micros) {
+				records[0]++;
+			}
+		});
+		return records[0];
+	}
+
+	/**
+	 * Adds up the payments of the ticks {@code from} to {@code to} by kind.
+	 *
+	 * @return the number of payments of each {@linkplain Kind} (first row)
+	 *         and their total, in micro-units (second row), by ordinal
+	 */
+	public long[][] byKind(int from, int to) {
+		final long[][] flows = new long[2][TransferJournal.KINDS.length];
+		scan(from, to, new Visitor() {
+			@Override
+			public void visit(int tick, int stage, Kind kind, int drawee, int recepient, long micros) {
+				flows[0][kind.ordinal()]++;
+				flows[1][kind.ordinal()] += micros;
+			}
+		});
+		return flows;
+	}
+
+	/**
+	 * Adds up the payments of the ticks {@code from} to {@code to} by account.
+	 *
+	 * @param kind
+	 *            the kind of the payments added up, or {@code null} for all
+	 * @return the amount paid (first row) and received (second row) by each
+	 *         account, in micro-units, by position in the ledger
+	 */
+	public long[][] byAccount(int from, int to, final Kind kind) {
+		final long[][] flows = new long[2][0];
+		scan(from, to, new Visitor() {
+			@Override
+			public void visit(int tick, int stage, Kind paid, int drawee, int recepient, long micros) {
+				if (kind != null && paid != kind)
+					return;
+				if (drawee >= 0)
+					add(0, drawee, micros);
+				if (recepient >= 0)
+					add(1, recepient, micros);
+			}
+
+			private void add(int row, int account, long micros) {
+				if (account >= flows[row].length) {
+					long[] longer = new long[Math.max(account + 1, flows[row].length * 2)];
+					System.arraycopy(flows[row], 0, longer, 0, flows[row].length);
+					flows[row] = longer;
+				}
+				flows[row][account] += micros;
+			}
+		});
+
+		// both rows as long as the highest account
+		int accounts = Math.max(flows[0].length, flows[1].length);
+		for (int row = 0; row < 2; row++) {
+			long[] amounts = new long[accounts];
+			System.arraycopy(flows[row], 0, amounts, 0, flows[row].length);
+			flows[row] = amounts;
+		}
+		return flows;
+	}
+
+	/**
+	 * Writes the number and the total of the payments of each kind as comma
+	 * separated values.
+	 */
+	public void printKinds(PrintStream out, int from, int to) {
+		long[][] flows = byKind(from, to);
+		out.println("kind,payments,amount");
+		for (Kind kind : TransferJournal.KINDS)
+			out.println(kind + "," + flows[0][kind.ordinal()] + ","
+					+ (double) flows[1][kind.ordinal()] / Money.UNIT);
+	}
+
+	/**
+	 * Writes the amount paid and received by each account with any payment
+	 * as comma separated values.
+	 *
+	 * @param kind
+	 *            the kind of the payments added up, or {@code null} for all
+	 */
+	public void printAccounts(PrintStream out, int from, int to, Kind kind) {
+		long[][] flows = byAccount(from, to, kind);
+		out.println("account,paid,received,net");
+		for (int i = 0; i < flows[0].length; i++) {
+			if (flows[0][i] != 0 || flows[1][i] != 0)
+				out.println(i + "," + (double) flows[0][i] / Money.UNIT + "," + (double) flows[1][i] / Money.UNIT
+						+ "," + (double) (flows[1][i] - flows[0][i]) / Money.UNIT);
+		}
+	}
+
+	/**
+	 * Usage: {@code JournalReader file [kinds | accounts [kind]] [from] [to]}
+	 * <br>
+	 * Prints the payments of the ticks {@code from} to {@code to} (all of them
+	 * by default) added up by kind, or by account, e.g.
+	 * {@code JournalReader run.journal accounts WAGE 100 200}.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: JournalReader file [kinds | accounts [kind]] [from] [to]");
+			System.exit(-1);
+		}
+
+		int next = 1;
+		boolean accounts = args.length > next && args[next].equals("accounts");
+		if (args.length > next && (accounts || args[next].equals("kinds")))
+			next++;
+		Kind kind = null;
+		if (accounts && args.length > next && !Character.isDigit(args[next].charAt(0)))
+			kind = Kind.valueOf(args[next++]);
+		int from = args.length > next ? Integer.parseInt(args[next++]) : Integer.MIN_VALUE;
+		int to = args.length > next ? Integer.parseInt(args[next]) : Integer.MAX_VALUE;
+
+		JournalReader reader = new JournalReader(new File(args[0]));
+		if (accounts)
+			reader.printAccounts(System.out, from, to, kind);
+		else
+			reader.printKinds(System.out, from, to);
+	}
+
+}
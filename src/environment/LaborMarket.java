@@ -1,115 +1,239 @@
-package environment;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-
-import agents.Household;
-import utilities.Properties;
-
-/**
- * This class represents the Job Market. It works as a pool for the Households
- * that are looking for a job become visible to the Firms that are hiring.
- * 
- * @author Diogo L. Costa
- *
- * @param jobPool
- *            A list of all jobs posted by Firms and open for applications
- */
-public final class LaborMarket {
-
-	private List<Household> applicants = new ArrayList<Household>();
-
-	private boolean marketReady = false;
-	private boolean marketClose = false;
-	private boolean laborClose = false;
-	private boolean isSorted = false;
-	private int readyCount = 0;
-	private int closeCount = 0;
-	private int laborCount = 0;
-
-	/**
-	 * LaborMarket can only be created in {@link SimBuilder}; throughout the
-	 * simulation NO AGENT is able to create an instance of this class.
-	 */
-	LaborMarket() {
-
-	}
-
-	public final void joinLaborMarket(Household applicant) {
-		applicants.add(applicant);
-
-	}
-
-	/**
-	 * Clears all the subscriptions made to the market if the {@code firm}
-	 * requesting the cleanse is currently subscribed.<br>
-	 * 
-	 * @param firm
-	 */
-	public void clearMarket() {
-		if (!applicants.isEmpty()) {
-			applicants.clear();
-			isSorted = false;
-		}
-	}
-
-	public List<Household> getApplicants() {
-		if (isSorted)
-			return applicants;
-		else {
-			// Returns the list of applicants sorted by productivity
-			Collections.sort(applicants, new Comparator<Household>() {
-
-				@Override
-				public int compare(Household o1, Household o2) {
-					if (o1.getProductivity() > o2.getProductivity())
-						return -1;
-					else if (o1.getProductivity() < o2.getProductivity())
-						return 1;
-					return 0;
-				}
-
-			});
-			isSorted = true;
-			return applicants;
-		}
-	}
-
-	public void removeApplicants(List<Household> household) {
-		applicants.removeAll(household);
-	}
-
-	public void confirmOffers() {
-		readyCount++;
-		if (readyCount == Properties.getNumberOfOpenFirms()) {
-			marketReady = !marketReady;
-			readyCount = 0;
-		}
-	}
-
-	public void confirmVisit() {
-		closeCount++;
-		if (closeCount == Properties.getNumberOfHouseholds()) {
-			marketClose = !marketClose;
-			closeCount = 0;
-		}
-	}
-
-	public void closeLabor() {
-		laborCount++;
-		if (laborCount == Properties.getNumberOfOpenFirms()) {
-			laborClose = !laborClose;
-			laborCount = 0;
-		}
-	}
-
-	public void communicateClosure() {
-		if (readyCount == Properties.getNumberOfOpenFirms()) {
-			readyCount--;
-			confirmOffers();
-		}
-	}
-
-}
+package environment;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import agents.Household;
+import utilities.RandomStream;
+
+/**
+ * This class represents the Job Market. It works as a pool for the Households
+ * that are looking for a job become visible to the Firms that are hiring.
+ * 
+ * @author Diogo L. Costa
+ *
+ * @param jobPool
+ *            A list of all jobs posted by Firms and open for applications
+ */
+public final class LaborMarket {
+
+	private final Region region;
+	private List<Household> applicants = new ArrayList<Household>();
+
+	// Tree of the lowest reservation wages over the ranked applicants
+	private static final float HIRED = Float.POSITIVE_INFINITY;
+	private float[] wages = new float[2];
+	private int leaves = 1;
+	private int size = 0;
+
+	private boolean marketReady = false;
+	private boolean marketClose = false;
+	private boolean laborClose = false;
+	private boolean isSorted = false;
+	private int readyCount = 0;
+	private int closeCount = 0;
+	private int laborCount = 0;
+
+	/**
+	 * LaborMarket can only be created in {@link Economy}; throughout the
+	 * simulation NO AGENT is able to create an instance of this class.
+	 * 
+	 * @param region
+	 *            the region of the run the market belongs to
+	 */
+	LaborMarket(Region region) {
+		this.region = region;
+	}
+
+	public final void joinLaborMarket(Household applicant) {
+		if (isSorted) {
+			// keep only those who were not hired before ranking again
+			applicants = getApplicants();
+			isSorted = false;
+		}
+		applicants.add(applicant);
+
+	}
+
+	/**
+	 * Clears all the subscriptions made to the market if the {@code firm}
+	 * requesting the cleanse is currently subscribed.<br>
+	 * 
+	 * @param firm
+	 */
+	public void clearMarket() {
+		if (!applicants.isEmpty()) {
+			applicants.clear();
+			isSorted = false;
+		}
+	}
+
+	/**
+	 * Takes a random {@code fraction} of the applicants not hired yet out of
+	 * the market, see {@linkplain Region}.
+	 * 
+	 * @return the applicants taken out
+	 */
+	List<Household> withdraw(double fraction, RandomStream random) {
+		if (isSorted) {
+			applicants = getApplicants();
+			isSorted = false;
+		}
+
+		List<Household> kept = new ArrayList<Household>(applicants.size());
+		List<Household> withdrawn = new ArrayList<Household>();
+		for (Household applicant : applicants) {
+			if (random.nextDouble() < fraction)
+				withdrawn.add(applicant);
+			else
+				kept.add(applicant);
+		}
+		applicants = kept;
+		return withdrawn;
+	}
+
+	/**
+	 * @return the applicants that were not hired yet, sorted by productivity
+	 */
+	public List<Household> getApplicants() {
+		rank();
+		List<Household> remaining = new ArrayList<Household>(size);
+		for (int i = 0; i < applicants.size(); i++) {
+			if (wages[leaves + i] != HIRED)
+				remaining.add(applicants.get(i));
+		}
+		return remaining;
+	}
+
+	/**
+	 * Hires the most productive applicant willing to work for the given
+	 * {@code wage}, i.e. whose reservation wage is not above it, and removes
+	 * it from the market.<br>
+	 * Applicants with the same productivity are hired in the order they joined
+	 * the market.
+	 * 
+	 * @param wage
+	 *            the highest reservation wage the employer accepts
+	 * @return the hired applicant or {@code null} if nobody accepts the
+	 *         {@code wage}
+	 */
+	public Household hire(float wage) {
+		rank();
+		if (size == 0 || !(wages[1] <= wage))
+			return null;
+
+		// descend towards the leftmost (most productive) eligible applicant
+		int node = 1;
+		while (node < leaves)
+			node = wages[2 * node] <= wage ? 2 * node : 2 * node + 1;
+
+		Household applicant = applicants.get(node - leaves);
+
+		wages[node] = HIRED;
+		for (node /= 2; node >= 1; node /= 2)
+			wages[node] = Math.min(wages[2 * node], wages[2 * node + 1]);
+		size--;
+
+		return applicant;
+	}
+
+	/**
+	 * Sorts the applicants by productivity and indexes their reservation wages
+	 * in a tree holding, for each range of applicants, the lowest reservation
+	 * wage among those not hired yet.
+	 */
+	private void rank() {
+		if (isSorted)
+			return;
+
+		// Returns the list of applicants sorted by productivity
+		Collections.sort(applicants, new Comparator<Household>() {
+
+			@Override
+			public int compare(Household o1, Household o2) {
+				if (o1.getProductivity() > o2.getProductivity())
+					return -1;
+				else if (o1.getProductivity() < o2.getProductivity())
+					return 1;
+				return 0;
+			}
+
+		});
+
+		size = applicants.size();
+		leaves = 1;
+		while (leaves < size)
+			leaves *= 2;
+		if (wages.length < 2 * leaves)
+			wages = new float[2 * leaves];
+
+		Arrays.fill(wages, leaves, 2 * leaves, HIRED);
+		for (int i = 0; i < size; i++)
+			wages[leaves + i] = applicants.get(i).getReservationWage();
+		for (int node = leaves - 1; node >= 1; node--)
+			wages[node] = Math.min(wages[2 * node], wages[2 * node + 1]);
+
+		isSorted = true;
+	}
+
+	public void confirmOffers() {
+		readyCount++;
+		if (readyCount == region.getNumberOfOpenFirms()) {
+			marketReady = !marketReady;
+			readyCount = 0;
+		}
+	}
+
+	public void confirmVisit() {
+		closeCount++;
+		if (closeCount == region.getNumberOfHouseholds()) {
+			marketClose = !marketClose;
+			closeCount = 0;
+		}
+	}
+
+	public void closeLabor() {
+		laborCount++;
+		if (laborCount == region.getNumberOfOpenFirms()) {
+			laborClose = !laborClose;
+			laborCount = 0;
+		}
+	}
+
+	/**
+	 * Writes the state the market carries from one tick to the next. The
+	 * applicants are not written: every tick starts by clearing them.
+	 */
+	void writeState(DataOutput out) throws IOException {
+		out.writeBoolean(marketReady);
+		out.writeBoolean(marketClose);
+		out.writeBoolean(laborClose);
+		out.writeInt(readyCount);
+		out.writeInt(closeCount);
+		out.writeInt(laborCount);
+	}
+
+	void readState(DataInput in) throws IOException {
+		marketReady = in.readBoolean();
+		marketClose = in.readBoolean();
+		laborClose = in.readBoolean();
+		readyCount = in.readInt();
+		closeCount = in.readInt();
+		laborCount = in.readInt();
+		clearMarket();
+	}
+
+	public void communicateClosure() {
+		if (readyCount == region.getNumberOfOpenFirms()) {
+			readyCount--;
+			confirmOffers();
+		}
+	}
+
+}
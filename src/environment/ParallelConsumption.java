@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import agents.Household;
+import repast.simphony.engine.watcher.Watch;
+import repast.simphony.engine.watcher.WatcherTriggerSchedule;
+import utilities.Properties;
+import utilities.RandomStream;
+
+/**
+ * Drives the households' consumption stage when
+ * {@link Properties#PARALLEL_CONSUMPTION} is enabled.<br>
+ * The stage is split in two phases:
+ * <ol>
+ * <li>every household fills its cart ({@link Household#chooseGoods()}) on a
+ * ForkJoin pool; each one draws from its own random stream, split from the
+ * run's seed, and only reads the market;</li>
+ * <li>the households then buy their goods ({@link Household#buyGoods()}) one at
+ * a time, in an order given by a permutation drawn from the run's seed. Goods
+ * sold to earlier households are no longer available to the later ones.</li>
+ * </ol>
+ * The outcome of a run is therefore the same for a given seed regardless of
+ * the number of threads.
+ *
+ */
+public class ParallelConsumption {
+
+	// Number of households shopping in the same task
+	private static final int BATCH = 64;
+
+	private final List<Household> households;
+	private final ForkJoinPool pool;
+	private RandomStream random;
+	private int[] order = new int[0];
+
+	ParallelConsumption(GoodsMarket gm, List<Household> contextHouseholds) {
+		this(gm, contextHouseholds, Properties.CONSUMPTION_THREADS);
+	}
+
+	ParallelConsumption(GoodsMarket gm, List<Household> contextHouseholds, int threads) {
+		households = new ArrayList<Household>(contextHouseholds);
+		pool = new ForkJoinPool(threads);
+		random = gm.newRandomStream();
+	}
+
+	@Watch(watcheeClassName = "environment.GoodsMarket", watcheeFieldNames = "marketReady", whenToTrigger = WatcherTriggerSchedule.IMMEDIATE)
+	public void consumptionStage() {
+
+		pool.invoke(new Shopping(0, households.size()));
+
+		int n = households.size();
+		if (order.length != n)
+			order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		for (int i = n - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+
+		for (int i = 0; i < n; i++)
+			households.get(order[i]).buyGoods();
+	}
+
+	/**
+	 * Shuts down the pool once the run is over, see
+	 * {@link Economy#close()}.
+	 */
+	void close() {
+		pool.shutdown();
+	}
+
+	void writeState(DataOutput out) throws IOException {
+		out.writeLong(random.getSeed());
+		out.writeLong(random.getGamma());
+	}
+
+	void readState(DataInput in) throws IOException {
+		long seed = in.readLong();
+		random = new RandomStream(seed, in.readLong());
+	}
+
+	private final class Shopping extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		Shopping(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BATCH) {
+				for (int i = from; i < to; i++)
+					households.get(i).chooseGoods();
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Shopping(from, middle), new Shopping(middle, to));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,514 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import agents.Firm;
+import agents.Household;
+import environment.HeadlessEngine.Stage;
+import utilities.Configuration;
+import utilities.JobContract;
+import utilities.Properties;
+import utilities.RandomStream;
+
+/**
+ * One of the partitions of a distributed run, run by its own JVM and driven by
+ * the {@linkplain Coordinator}.<br>
+ * A partition holds every {@code n}-th household and firm of the run, with
+ * their own markets, government and bank. The coordinator runs each stage of
+ * the cycle in two steps, and routes the messages the partitions send each
+ * other in between:
+ * <ul>
+ * <li>settle: the partition applies the results of the previous stage sent by
+ * the others, then exports what they need for the next one;</li>
+ * <li>run: the partition imports what was exported to it, runs the stage, and
+ * reports its results.</li>
+ * </ul>
+ * Like the regions of a sharded run (see {@linkplain Region}), a random
+ * fraction ({@link Configuration#getVisibility()}) of the applicants of a
+ * partition applies for the jobs of another one before the recruiting, and a
+ * fraction of its households shops in another one before the consumption. In
+ * the other partition, a household is represented by a stand-in, a copy of its
+ * state with a bank account of its own:
+ * <ul>
+ * <li>an applicant's stand-in joins the labor market; once hired, it stays as
+ * long as it is employed, its wages are remitted to the household and its
+ * productivity updated at every tick;</li>
+ * <li>a shopper's stand-in is given the household's funds, shops once the
+ * partition's households are done, and the funds left are remitted back.</li>
+ * </ul>
+ * Money leaves a partition's bank only to be paid into another one's, so the
+ * money of the whole run is kept. Each partition collects its own taxes and
+ * pays its own benefits.
+ *
+ */
+public final class Partition {
+
+	// The commands of the coordinator
+	static final byte SETTLE = 1;
+	static final byte RUN = 2;
+	static final byte STOP = 3;
+
+	// The messages between partitions: those exported at a barrier...
+	private static final byte APPLICANT = 1;
+	private static final byte SHOPPER = 2;
+	private static final byte PRODUCTIVITY = 3;
+	// ...and the results reported after a stage
+	private static final byte HIRED = 4;
+	private static final byte FIRED = 5;
+	private static final byte PAYCHECK = 6;
+	private static final byte WAGE = 7;
+	private static final byte PURCHASE = 8;
+
+	/**
+	 * The stand-in of a household of another partition.
+	 */
+	private static final class StandIn {
+		private final Household household;
+		private final Region region;
+		private int origin;
+		private int row;
+		// The wage last reported to the origin
+		private float wage;
+
+		StandIn(Household household, Region region) {
+			this.household = household;
+			this.region = region;
+		}
+	}
+
+	/**
+	 * The job of a household of this partition in another one.
+	 */
+	private static final class Commute {
+		private final int partition;
+		private final JobContract contract;
+
+		Commute(int partition, JobContract contract) {
+			this.partition = partition;
+			this.contract = contract;
+		}
+	}
+
+	private final int index;
+	private final int partitions;
+	private final Economy economy;
+	private final HeadlessEngine engine;
+	private final Bank bank;
+	private final float visibility;
+
+	// Draws the exported applicants and shoppers, and their partition
+	private final RandomStream random;
+
+	private final HouseholdStore visitors;
+	private final List<StandIn> idle = new ArrayList<StandIn>();
+	private final List<StandIn> applicants = new ArrayList<StandIn>();
+	private final List<StandIn> shoppers = new ArrayList<StandIn>();
+	// The employed stand-ins, by origin and row
+	private final Map<Long, StandIn> employees = new TreeMap<Long, StandIn>();
+	// The households of this partition employed in another one, by row
+	private final Map<Integer, Commute> commutes = new TreeMap<Integer, Commute>();
+
+	// The messages to each partition, sent after the current step
+	private final ByteArrayOutputStream[] buffers;
+	private final DataOutputStream[] outbox;
+
+	private int tick = 0;
+
+	/**
+	 * @param configuration
+	 *            the parameters of the whole run
+	 * @param seed
+	 *            the seed of the partition's economy
+	 * @param exchange
+	 *            the seed of the stream drawing the exported households
+	 * @param index
+	 *            the position of the partition
+	 * @param partitions
+	 *            the number of partitions of the run
+	 */
+	Partition(Configuration configuration, long seed, long exchange, int index, int partitions) {
+		this.index = index;
+		this.partitions = partitions;
+		economy = new Economy(configuration, seed, index, partitions);
+		engine = new HeadlessEngine(economy, 0);
+		bank = economy.getBank();
+		visibility = configuration.getVisibility();
+		random = new RandomStream(exchange);
+		visitors = new HouseholdStore(bank, configuration);
+
+		buffers = new ByteArrayOutputStream[partitions];
+		outbox = new DataOutputStream[partitions];
+		for (int i = 0; i < partitions; i++) {
+			buffers[i] = new ByteArrayOutputStream();
+			outbox[i] = new DataOutputStream(buffers[i]);
+		}
+	}
+
+	/**
+	 * Runs the steps ordered by the coordinator until it stops the run.
+	 *
+	 * @param in
+	 *            the commands of the coordinator, each followed by the messages
+	 *            of every partition
+	 * @param out
+	 *            the messages to every partition after each step, and the
+	 *            indicators of the partition after each tick
+	 * @param sink
+	 *            where the indicators of the partition are written, or
+	 *            {@code null}
+	 */
+	void serve(DataInputStream in, DataOutputStream out, StatisticsSink sink) throws IOException {
+		while (true) {
+			byte command = in.readByte();
+			if (command == STOP)
+				return;
+
+			Stage stage = Stage.values()[in.readInt()];
+			TransferJournal journal = bank.getJournal();
+			if (journal != null)
+				journal.mark(economy.getIteration(), stage);
+
+			byte[][] inbox = new byte[partitions][];
+			for (int i = 0; i < partitions; i++) {
+				inbox[i] = new byte[in.readInt()];
+				in.readFully(inbox[i]);
+			}
+
+			for (int i = 0; i < partitions; i++) {
+				DataInputStream messages = new DataInputStream(new ByteArrayInputStream(inbox[i]));
+				while (messages.available() > 0)
+					receive(i, messages);
+			}
+
+			if (command == SETTLE)
+				export(stage);
+			else {
+				run(stage);
+				report();
+			}
+
+			for (int i = 0; i < partitions; i++) {
+				outbox[i].flush();
+				out.writeInt(buffers[i].size());
+				buffers[i].writeTo(out);
+				buffers[i].reset();
+			}
+
+			if (command == RUN && stage == Stage.ACCOUNTING) {
+				tick++;
+				writeIndicators(out);
+				if (sink != null)
+					sink.append(tick, economy.getStatistics());
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * Handles a message of the partition {@code source}.
+	 */
+	private void receive(int source, DataInput in) throws IOException {
+		byte kind = in.readByte();
+		int row = in.readInt();
+
+		switch (kind) {
+		case APPLICANT: {
+			StandIn applicant = standIn(source, row, in);
+			applicant.region.getLaborMarket().joinLaborMarket(applicant.household);
+			applicants.add(applicant);
+			break;
+		}
+		case SHOPPER: {
+			StandIn shopper = standIn(source, row, in);
+			bank.receive(shopper.household.getAccount(), in.readLong());
+			shoppers.add(shopper);
+			break;
+		}
+		case PRODUCTIVITY: {
+			StandIn employee = employees.get(key(source, row));
+			if (employee == null)
+				throw new IllegalStateException("No stand-in of household " + row + " of partition " + source);
+			visitors.setProductivity(employee.household.getRow(), in.readFloat());
+			break;
+		}
+		case HIRED: {
+			Household hh = economy.getHouseholds().get(row);
+			JobContract contract = new JobContract(in.readFloat(), null, hh);
+			hh.notifyEmployed(contract);
+			commutes.put(row, new Commute(source, contract));
+			break;
+		}
+		case FIRED:
+			commutes.remove(row);
+			economy.getHouseholds().get(row).notifyFire();
+			break;
+		case PAYCHECK:
+			commutes.get(row).contract.setPayCheck(in.readFloat());
+			break;
+		case WAGE:
+			bank.receive(economy.getHouseholds().get(row).getAccount(), in.readLong());
+			break;
+		case PURCHASE: {
+			Household hh = economy.getHouseholds().get(row);
+			hh.notifyShopping(in.readInt());
+			bank.receive(hh.getAccount(), in.readLong());
+			hh.readState(in);
+			break;
+		}
+		default:
+			throw new IOException("Unknown message " + kind + " from partition " + source);
+		}
+	}
+
+	/**
+	 * Exports what the other partitions need for the {@code stage}: the
+	 * productivity of the households employed there before the planning, a
+	 * fraction of the applicants before the recruiting and of the households
+	 * (with their funds) before the consumption.
+	 */
+	private void export(Stage stage) throws IOException {
+		if (partitions == 1)
+			return;
+
+		switch (stage) {
+		case PLANNING:
+			for (Map.Entry<Integer, Commute> commute : commutes.entrySet()) {
+				DataOutputStream out = outbox[commute.getValue().partition];
+				out.writeByte(PRODUCTIVITY);
+				out.writeInt(commute.getKey());
+				out.writeFloat(economy.getHouseholds().get(commute.getKey()).getProductivity());
+			}
+			break;
+		case RECRUITING:
+			for (Region region : economy.getRegions()) {
+				for (Household hh : region.getLaborMarket().withdraw(visibility, random)) {
+					DataOutputStream out = outbox[other()];
+					out.writeByte(APPLICANT);
+					writeHousehold(out, hh);
+				}
+			}
+			break;
+		case CONSUMPTION:
+			for (Household hh : economy.getHouseholds()) {
+				if (random.nextDouble() < visibility) {
+					DataOutputStream out = outbox[other()];
+					out.writeByte(SHOPPER);
+					writeHousehold(out, hh);
+					out.writeLong(bank.remit(hh.getAccount()));
+				}
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Runs the {@code stage}; once the households of the partition consumed,
+	 * the shoppers of the others do.
+	 */
+	private void run(Stage stage) throws IOException {
+		engine.runStage(stage);
+
+		if (stage == Stage.CONSUMPTION) {
+			for (StandIn shopper : shoppers) {
+				DataOutputStream out = outbox[shopper.origin];
+				out.writeByte(PURCHASE);
+				out.writeInt(shopper.row);
+				out.writeInt(shopper.household.shop());
+				out.writeLong(bank.remit(shopper.household.getAccount()));
+				shopper.household.writeState(out);
+				idle.add(shopper);
+			}
+			shoppers.clear();
+		}
+	}
+
+	/**
+	 * Reports the changes of the employed stand-ins to their households: the
+	 * applicants hired and the employees fired, the paychecks changed and the
+	 * wages received.
+	 */
+	private void report() throws IOException {
+		for (Iterator<StandIn> i = employees.values().iterator(); i.hasNext();) {
+			StandIn employee = i.next();
+			remitWage(employee);
+			if (!employee.household.isEmployed()) {
+				DataOutputStream out = outbox[employee.origin];
+				out.writeByte(FIRED);
+				out.writeInt(employee.row);
+				i.remove();
+				idle.add(employee);
+			} else if (employee.household.getWage() != employee.wage) {
+				employee.wage = employee.household.getWage();
+				DataOutputStream out = outbox[employee.origin];
+				out.writeByte(PAYCHECK);
+				out.writeInt(employee.row);
+				out.writeFloat(employee.wage);
+			}
+		}
+
+		// the applicants not hired by the end of the recruiting go back home
+		for (StandIn applicant : applicants) {
+			if (applicant.household.isEmployed()) {
+				applicant.wage = applicant.household.getWage();
+				DataOutputStream out = outbox[applicant.origin];
+				out.writeByte(HIRED);
+				out.writeInt(applicant.row);
+				out.writeFloat(applicant.wage);
+				employees.put(key(applicant.origin, applicant.row), applicant);
+			} else
+				idle.add(applicant);
+		}
+		applicants.clear();
+	}
+
+	private void remitWage(StandIn employee) throws IOException {
+		long wage = bank.remit(employee.household.getAccount());
+		if (wage != 0) {
+			DataOutputStream out = outbox[employee.origin];
+			out.writeByte(WAGE);
+			out.writeInt(employee.row);
+			out.writeLong(wage);
+		}
+	}
+
+	/**
+	 * Writes the indicators the coordinator adds up over the partitions.
+	 */
+	private void writeIndicators(DataOutputStream out) throws IOException {
+		StatisticsManager statistics = economy.getStatistics();
+
+		// as the average wage of the StatisticsManager
+		float wages = 0;
+		float employees = 0;
+		for (Firm firm : economy.getFirms()) {
+			if (firm.getNumberOfEmployees() > 0) {
+				employees += firm.getNumberOfEmployees();
+				wages += (firm.getNumberOfEmployees() * firm.getAverageWage());
+			}
+		}
+
+		out.writeFloat(statistics.getGDP());
+		out.writeInt(statistics.getProductionOutput());
+		out.writeInt(statistics.getEmployed());
+		out.writeInt(economy.getNumberOfHouseholds());
+		out.writeFloat(wages);
+		out.writeFloat(employees);
+		out.writeFloat(statistics.getGovFunds());
+	}
+
+	/**
+	 * Writes what a stand-in copies of a household.
+	 */
+	private void writeHousehold(DataOutputStream out, Household hh) throws IOException {
+		out.writeInt(hh.getRow());
+		out.writeFloat(hh.getReservationWage());
+		out.writeFloat(hh.getProductivity());
+		hh.writeState(out);
+	}
+
+	/**
+	 * @return a stand-in of the household {@code row} of the partition
+	 *         {@code origin}, as written by
+	 *         {@link #writeHousehold(DataOutputStream, Household)}
+	 */
+	private StandIn standIn(int origin, int row, DataInput in) throws IOException {
+		StandIn standIn;
+		if (idle.isEmpty()) {
+			int count = visitors.size();
+			Region region = economy.getRegions().get(count % economy.getRegions().size());
+			standIn = new StandIn(new Household(economy, region, visitors), region);
+		} else
+			standIn = idle.remove(idle.size() - 1);
+
+		standIn.origin = origin;
+		standIn.row = row;
+		int visitor = standIn.household.getRow();
+		visitors.setEmployed(visitor, false);
+		visitors.setWage(visitor, 0);
+		visitors.setReservationWage(visitor, in.readFloat());
+		visitors.setProductivity(visitor, in.readFloat());
+		standIn.household.readState(in);
+		return standIn;
+	}
+
+	private static Long key(int origin, int row) {
+		return ((long) origin << 32) | row;
+	}
+
+	/**
+	 * @return the position of a partition other than this one, drawn at
+	 *         random
+	 */
+	private int other() {
+		return (index + 1 + random.nextInt(partitions - 1)) % partitions;
+	}
+
+	/**
+	 * Usage: {@code Partition <host> <port> <index>}<br>
+	 * Connects to the coordinator of a distributed run, which is normally the
+	 * one starting this JVM, and runs the partition it is given. With
+	 * {@code -Dstats=<directory>}, the indicators of the partition are written
+	 * to {@code partition-<index>.stats} (see {@linkplain StatisticsSink}). With
+	 * {@code -Djournal=<directory>}, its payments are recorded in
+	 * {@code partition-<index>.journal} (see {@linkplain TransferJournal}); the
+	 * accounts are those of the partition's bank.
+	 */
+	public static void main(String[] args) throws IOException {
+		int index = Integer.parseInt(args[2]);
+		Socket socket = new Socket(args[0], Integer.parseInt(args[1]));
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeInt(index);
+			out.flush();
+
+			int partitions = in.readInt();
+			Configuration configuration = Configuration.read(in);
+			long seed = in.readLong();
+			long exchange = in.readLong();
+			Partition partition = new Partition(configuration, seed, exchange, index, partitions);
+
+			String stats = System.getProperty("stats");
+			String journal = System.getProperty("journal");
+			StatisticsSink sink = stats != null
+					? new StatisticsSink(new File(stats, "partition-" + index + ".stats"), Properties.END_TICK)
+					: null;
+			TransferJournal transfers = journal != null
+					? new TransferJournal(new File(journal, "partition-" + index + ".journal"))
+					: null;
+			partition.bank.setJournal(transfers);
+			try {
+				partition.serve(in, out, sink);
+			} finally {
+				if (sink != null)
+					sink.close();
+				if (transfers != null)
+					transfers.close();
+				partition.economy.close();
+			}
+		} finally {
+			socket.close();
+		}
+	}
+
+}
@@ -0,0 +1,264 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import agents.Firm;
+import agents.Government;
+import agents.Household;
+import environment.HeadlessEngine.Stage;
+import utilities.Configuration;
+import utilities.Inventory;
+import utilities.RandomStream;
+
+/**
+ * A shard of a run: a share of its firms and households, with their own
+ * {@linkplain GoodsMarket} and {@linkplain LaborMarket}.<br>
+ * A run sharded in several regions (see {@link Configuration#getRegions()}) is
+ * driven by the {@linkplain HeadlessEngine}: the stages in which the agents
+ * only deal with the markets of their region (the labor application, the
+ * recruiting, the production and the consumption) run on a thread per region,
+ * the others over the whole economy.<br>
+ * At the barrier before the recruiting and before the consumption, a random
+ * fraction ({@link Configuration#getVisibility()}) of the applicants of each
+ * labor market, and of the sellers of each goods market, is moved to the
+ * market of another region, where they are visible to its agents during the
+ * next stage. Since an applicant or a seller is in a single market at a time,
+ * the agents of a region only ever write their own state and that of the
+ * agents in its markets.<br>
+ * The taxes paid in a region are collected by its own
+ * {@linkplain Government}, and moved to the government of the economy at every
+ * barrier (see {@link Government#collect(Government)}); the amounts being
+ * fixed-point, the totals do not depend on the order of the regions. The
+ * lowest reservation wage and lowest price of the
+ * {@linkplain StatisticsManager} are only updated at the barriers.<br>
+ * <br>
+ * A run that is not sharded has a single region, which holds every agent, the
+ * markets and the government of the economy.
+ *
+ */
+public final class Region {
+
+	private final Economy economy;
+	private final int index;
+	private final Government government;
+	private final GoodsMarket goodsMarket;
+	private final LaborMarket laborMarket;
+	private final List<Firm> firms = new ArrayList<Firm>();
+	private final List<Household> households = new ArrayList<Household>();
+	private int openFirms = 0;
+
+	// Draws the applicants and sellers moved to other regions, null if the
+	// run is not sharded
+	private RandomStream random;
+
+	/**
+	 * @param economy
+	 *            the run the region belongs to
+	 * @param index
+	 *            the position of the region in the economy
+	 * @param government
+	 *            the government collecting the taxes paid in the region
+	 * @param market
+	 *            the random stream of the region's goods market
+	 * @param exchange
+	 *            the random stream drawing the exchanged applicants and
+	 *            sellers, {@code null} if the run is not sharded
+	 */
+	Region(Economy economy, int index, Government government, RandomStream market, RandomStream exchange) {
+		this.economy = economy;
+		this.index = index;
+		this.government = government;
+		random = exchange;
+		goodsMarket = new GoodsMarket(economy, this, market);
+		laborMarket = new LaborMarket(this);
+	}
+
+	void add(Firm firm) {
+		firms.add(firm);
+		openFirms++;
+	}
+
+	void add(Household household) {
+		households.add(household);
+	}
+
+	/**
+	 * Runs one of the stages of the cycle that only involve the region's
+	 * agents and markets.
+	 *
+	 * @param stage
+	 *            {@code LABOR_APPLICATION}, {@code RECRUITING},
+	 *            {@code PRODUCTION} or {@code CONSUMPTION}
+	 */
+	void runStage(Stage stage) {
+		switch (stage) {
+		case LABOR_APPLICATION:
+			for (Household hh : households)
+				hh.jobApplicationStage();
+			break;
+		case RECRUITING:
+			for (Firm firm : firms)
+				firm.recruitingStage();
+			break;
+		case PRODUCTION:
+			for (Firm firm : firms)
+				firm.productionStage();
+			break;
+		case CONSUMPTION:
+			for (Household hh : households)
+				hh.consume();
+			break;
+		default:
+			throw new IllegalArgumentException("The " + stage + " stage is not run by region");
+		}
+	}
+
+	/**
+	 * Moves a random {@code fraction} of the applicants of each region to the
+	 * labor market of another region.
+	 */
+	static void exchangeApplicants(List<Region> regions, double fraction) {
+		List<List<Household>> moved = new ArrayList<List<Household>>();
+		for (int i = 0; i < regions.size(); i++)
+			moved.add(new ArrayList<Household>());
+
+		// every applicant is taken out before any is moved, so none is moved
+		// twice
+		for (Region region : regions) {
+			for (Household applicant : region.laborMarket.withdraw(fraction, region.random))
+				moved.get(region.other(regions.size())).add(applicant);
+		}
+
+		for (int i = 0; i < regions.size(); i++) {
+			for (Household applicant : moved.get(i))
+				regions.get(i).laborMarket.joinLaborMarket(applicant);
+		}
+	}
+
+	/**
+	 * Moves the offers of a random {@code fraction} of the sellers of each
+	 * region to the goods market of another region.
+	 */
+	static void exchangeOffers(List<Region> regions, double fraction) {
+		List<List<Firm>> sellers = new ArrayList<List<Firm>>();
+		List<List<Inventory>> stocks = new ArrayList<List<Inventory>>();
+		for (int i = 0; i < regions.size(); i++) {
+			sellers.add(new ArrayList<Firm>());
+			stocks.add(new ArrayList<Inventory>());
+		}
+
+		for (Region region : regions) {
+			for (Map.Entry<Firm, Inventory> offer : region.goodsMarket.withdraw(fraction, region.random)
+					.entrySet()) {
+				int other = region.other(regions.size());
+				sellers.get(other).add(offer.getKey());
+				stocks.get(other).add(offer.getValue());
+			}
+		}
+
+		for (int i = 0; i < regions.size(); i++) {
+			for (int j = 0; j < sellers.get(i).size(); j++)
+				regions.get(i).goodsMarket.putToSale(sellers.get(i).get(j), stocks.get(i).get(j));
+		}
+	}
+
+	/**
+	 * @return the position of a region other than this one, drawn at random
+	 */
+	private int other(int regions) {
+		return (index + 1 + random.nextInt(regions - 1)) % regions;
+	}
+
+	/**
+	 * Clears the offers of both markets, those moved from other regions
+	 * included.
+	 */
+	void clearMarkets() {
+		goodsMarket.clearMarket();
+		laborMarket.clearMarket();
+	}
+
+	/**
+	 * Writes the state of the region's markets and random stream.
+	 */
+	void writeState(DataOutput out) throws IOException {
+		goodsMarket.writeState(out);
+		laborMarket.writeState(out);
+		if (random != null) {
+			out.writeLong(random.getSeed());
+			out.writeLong(random.getGamma());
+		}
+	}
+
+	/**
+	 * Restores the state written by {@link #writeState(DataOutput)}. The
+	 * number of open firms is counted again once the firms are restored, see
+	 * {@link #countOpenFirms()}.
+	 */
+	void readState(DataInput in) throws IOException {
+		goodsMarket.readState(in);
+		laborMarket.readState(in);
+		if (random != null) {
+			long seed = in.readLong();
+			random = new RandomStream(seed, in.readLong());
+		}
+	}
+
+	void countOpenFirms() {
+		openFirms = 0;
+		for (Firm firm : firms) {
+			if (firm.getStatus())
+				openFirms++;
+		}
+	}
+
+	/**
+	 * Counts one less open firm in the region, and in the economy.
+	 */
+	public void communicateClosure() {
+		openFirms--;
+		economy.communicateClosure();
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public Government getGovernment() {
+		return government;
+	}
+
+	public GoodsMarket getGoodsMarket() {
+		return goodsMarket;
+	}
+
+	public LaborMarket getLaborMarket() {
+		return laborMarket;
+	}
+
+	public List<Firm> getFirms() {
+		return Collections.unmodifiableList(firms);
+	}
+
+	public List<Household> getHouseholds() {
+		return Collections.unmodifiableList(households);
+	}
+
+	public int getNumberOfOpenFirms() {
+		return openFirms;
+	}
+
+	public int getNumberOfHouseholds() {
+		return households.size();
+	}
+
+}
@@ -0,0 +1,379 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Records where the time of each tick goes, stage by stage.<br>
+ * For every stage of the economic cycle ({@link Probe}) it keeps the number of
+ * calls, a latency histogram of the calls and, if the JVM can tell, the bytes
+ * the calling thread allocated. The stages are timed by the
+ * {@linkplain HeadlessEngine}, one call per agent, so that the watchers
+ * chaining the stages under Repast do not nest one stage's time in another's.
+ * <br>
+ * <br>
+ * The metrics are exported:
+ * <ul>
+ * <li>as comma separated values, one line per tick (see
+ * {@link #endTick(int)}): for each stage, its calls, total time (ms), median,
+ * 99th percentile and maximum latency (&micro;s), and allocated bytes;</li>
+ * <li>as a JMX MBean (see {@link #register(String)}), with the totals since
+ * the start of the run.</li>
+ * </ul>
+ * A profiler is meant to be used by the thread running the economy; the
+ * MBean's readings are only as consistent as a monitoring tool needs.
+ *
+ */
+public class StageProfiler implements StageProfilerMBean {
+
+	/**
+	 * The instrumented stages.
+	 */
+	public enum Probe {
+		PLANNING("Firm.planingStage"),
+		LABOR_APPLICATION("Household.jobApplicationStage"),
+		RECRUITING("Firm.recruitingStage"),
+		REDISTRIBUTION("Government.Redistribute"),
+		PRODUCTION("Firm.productionStage"),
+		CONSUMPTION("Household.needsManagementStage"),
+		ACCOUNTING("Firm.accountingStage"),
+		STATISTICS("StatisticsManager.calculateStatistics");
+
+		private final String method;
+
+		private Probe(String method) {
+			this.method = method;
+		}
+
+		/**
+		 * @return the method timed by this probe
+		 */
+		public String getMethod() {
+			return method;
+		}
+	}
+
+	private static final Probe[] PROBES = Probe.values();
+
+	/**
+	 * A profiler that records nothing.
+	 */
+	static final StageProfiler DISABLED = new StageProfiler(false, null);
+
+	private final boolean enabled;
+	private final PrintStream csv;
+	private final com.sun.management.ThreadMXBean threads;
+	private ObjectName name;
+
+	// Since the start of the run
+	private final long[] calls = new long[PROBES.length];
+	private final long[] nanos = new long[PROBES.length];
+	private final long[] bytes = new long[PROBES.length];
+	private final Histogram[] latency = new Histogram[PROBES.length];
+
+	// Since the start of the tick
+	private final long[] tickCalls = new long[PROBES.length];
+	private final long[] tickNanos = new long[PROBES.length];
+	private final long[] tickBytes = new long[PROBES.length];
+	private final Histogram[] tickLatency = new Histogram[PROBES.length];
+	private final long[] lastTickNanos = new long[PROBES.length];
+	private int lastTick = 0;
+
+	// The probe charged with the allocations, see enter(Probe)
+	private Probe current = null;
+	private long allocated;
+
+	/**
+	 * @param csv
+	 *            where the metrics of each tick are written, or {@code null}
+	 */
+	public StageProfiler(PrintStream csv) {
+		this(true, csv);
+	}
+
+	private StageProfiler(boolean enabled, PrintStream csv) {
+		this.enabled = enabled;
+		this.csv = csv;
+		threads = enabled ? allocationCounter() : null;
+
+		for (int i = 0; i < PROBES.length; i++) {
+			latency[i] = new Histogram();
+			tickLatency[i] = new Histogram();
+		}
+
+		if (csv != null)
+			csv.println(header());
+	}
+
+	/**
+	 * @return the time at which a call starts, to be given to
+	 *         {@link #stop(Probe, long)}
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records a call of the {@code probe}'s stage, started at {@code start}.
+	 */
+	public void stop(Probe probe, long start) {
+		if (enabled) {
+			long elapsed = System.nanoTime() - start;
+			int i = probe.ordinal();
+			tickCalls[i]++;
+			tickNanos[i] += elapsed;
+			tickLatency[i].record(elapsed);
+		}
+	}
+
+	/**
+	 * Charges the bytes allocated from now on to the {@code probe}, until
+	 * another probe is entered or {@link #exit()} is called. A stage nested in
+	 * another one (e.g. the statistics, computed during the accounting) enters
+	 * its own probe and then enters back the outer one.
+	 */
+	public void enter(Probe probe) {
+		if (enabled) {
+			charge();
+			current = probe;
+		}
+	}
+
+	/**
+	 * Stops charging the allocated bytes to any probe.
+	 */
+	public void exit() {
+		if (enabled) {
+			charge();
+			current = null;
+		}
+	}
+
+	private void charge() {
+		if (threads != null) {
+			long now = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			if (current != null)
+				tickBytes[current.ordinal()] += now - allocated;
+			allocated = now;
+		}
+	}
+
+	/**
+	 * Closes the metrics of the {@code tick}: writes them to the CSV, if any,
+	 * and adds them to the run's totals.
+	 */
+	public void endTick(int tick) {
+		if (!enabled)
+			return;
+
+		if (csv != null) {
+			StringBuilder line = new StringBuilder().append(tick);
+			for (int i = 0; i < PROBES.length; i++) {
+				line.append(',').append(tickCalls[i]);
+				line.append(',').append(String.format(Locale.ROOT, "%.3f", tickNanos[i] / 1e6));
+				line.append(',').append(String.format(Locale.ROOT, "%.3f", tickLatency[i].percentile(0.5) / 1e3));
+				line.append(',').append(String.format(Locale.ROOT, "%.3f", tickLatency[i].percentile(0.99) / 1e3));
+				line.append(',').append(String.format(Locale.ROOT, "%.3f", tickLatency[i].getMax() / 1e3));
+				line.append(',').append(threads != null ? tickBytes[i] : -1);
+			}
+			csv.println(line);
+		}
+
+		for (int i = 0; i < PROBES.length; i++) {
+			calls[i] += tickCalls[i];
+			nanos[i] += tickNanos[i];
+			bytes[i] += tickBytes[i];
+			latency[i].add(tickLatency[i]);
+			lastTickNanos[i] = tickNanos[i];
+
+			tickCalls[i] = 0;
+			tickNanos[i] = 0;
+			tickBytes[i] = 0;
+			tickLatency[i].clear();
+		}
+		lastTick = tick;
+	}
+
+	private static String header() {
+		StringBuilder header = new StringBuilder("tick");
+		for (Probe probe : PROBES) {
+			String stage = probe.name();
+			header.append(',').append(stage).append("_calls");
+			header.append(',').append(stage).append("_ms");
+			header.append(',').append(stage).append("_p50_us");
+			header.append(',').append(stage).append("_p99_us");
+			header.append(',').append(stage).append("_max_us");
+			header.append(',').append(stage).append("_bytes");
+		}
+		return header.toString();
+	}
+
+	/**
+	 * Registers the profiler in the platform's MBean server as
+	 * {@code AMoSI:type=StageProfiler,name=<name>}.
+	 *
+	 * @param run
+	 *            the name telling this run apart from others in the JVM
+	 * @throws JMException
+	 */
+	public void register(String run) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		name = new ObjectName("AMoSI:type=StageProfiler,name=" + ObjectName.quote(run));
+		server.registerMBean(this, name);
+	}
+
+	/**
+	 * Removes the profiler from the platform's MBean server, if registered.
+	 *
+	 * @throws JMException
+	 */
+	public void unregister() throws JMException {
+		if (name != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			name = null;
+		}
+	}
+
+	@Override
+	public String[] getStages() {
+		String[] stages = new String[PROBES.length];
+		for (int i = 0; i < PROBES.length; i++)
+			stages[i] = PROBES[i].getMethod();
+		return stages;
+	}
+
+	@Override
+	public int getTick() {
+		return lastTick;
+	}
+
+	@Override
+	public long[] getCalls() {
+		return calls.clone();
+	}
+
+	@Override
+	public long[] getTotalNanos() {
+		return nanos.clone();
+	}
+
+	@Override
+	public long[] getLastTickNanos() {
+		return lastTickNanos.clone();
+	}
+
+	@Override
+	public double[] getMeanMicros() {
+		double[] mean = new double[PROBES.length];
+		for (int i = 0; i < PROBES.length; i++)
+			mean[i] = calls[i] > 0 ? nanos[i] / 1e3 / calls[i] : 0;
+		return mean;
+	}
+
+	@Override
+	public double[] getP99Micros() {
+		double[] p99 = new double[PROBES.length];
+		for (int i = 0; i < PROBES.length; i++)
+			p99[i] = latency[i].percentile(0.99) / 1e3;
+		return p99;
+	}
+
+	@Override
+	public long[] getAllocatedBytes() {
+		return threads != null ? bytes.clone() : new long[PROBES.length];
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+			if (counter.isThreadAllocatedMemorySupported()) {
+				counter.setThreadAllocatedMemoryEnabled(true);
+				return counter;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A log-linear histogram of latencies in nanoseconds: every power of two is
+	 * split in 8 buckets, so a percentile is off by less than 1/8 of its
+	 * value.
+	 */
+	private static final class Histogram {
+
+		private static final int SUB_BUCKETS = 8;
+
+		private final long[] counts = new long[SUB_BUCKETS * 62];
+		private long total = 0;
+		private long max = 0;
+
+		void record(long value) {
+			if (value < 0)
+				value = 0;
+			counts[index(value)]++;
+			total++;
+			if (value > max)
+				max = value;
+		}
+
+		void add(Histogram other) {
+			for (int i = 0; i < counts.length; i++)
+				counts[i] += other.counts[i];
+			total += other.total;
+			if (other.max > max)
+				max = other.max;
+		}
+
+		void clear() {
+			Arrays.fill(counts, 0);
+			total = 0;
+			max = 0;
+		}
+
+		long getMax() {
+			return max;
+		}
+
+		/**
+		 * @return the middle of the bucket holding the {@code quantile}
+		 */
+		double percentile(double quantile) {
+			if (total == 0)
+				return 0;
+
+			long rank = (long) Math.ceil(quantile * total);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && counts[i] > 0)
+					return Math.min((lowerBound(i) + lowerBound(i + 1)) / 2.0, max);
+			}
+			return max;
+		}
+
+		private static int index(long value) {
+			if (value < SUB_BUCKETS)
+				return (int) value;
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			return SUB_BUCKETS * (exponent - 2) + (int) ((value >>> (exponent - 3)) & (SUB_BUCKETS - 1));
+		}
+
+		private static long lowerBound(int index) {
+			if (index < SUB_BUCKETS)
+				return index;
+			int exponent = index / SUB_BUCKETS + 2;
+			return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - 3);
+		}
+	}
+
+}
@@ -0,0 +1,44 @@
+/**
+ *
+ */
+package environment;
+
+/**
+ * The management interface of the {@linkplain StageProfiler}. Every array
+ * holds one value per stage, in the order of {@link #getStages()}.
+ *
+ */
+public interface StageProfilerMBean {
+
+	/**
+	 * @return the method timed for each stage
+	 */
+	String[] getStages();
+
+	/**
+	 * @return the last tick closed
+	 */
+	int getTick();
+
+	long[] getCalls();
+
+	long[] getTotalNanos();
+
+	/**
+	 * @return the time spent in each stage during the last tick
+	 */
+	long[] getLastTickNanos();
+
+	double[] getMeanMicros();
+
+	/**
+	 * @return the 99th percentile of the latency of a call
+	 */
+	double[] getP99Micros();
+
+	/**
+	 * @return the bytes allocated by each stage, all 0 if the JVM cannot tell
+	 */
+	long[] getAllocatedBytes();
+
+}
@@ -0,0 +1,125 @@
+/**
+ *
+ */
+package environment;
+
+import java.util.Arrays;
+
+import agents.Firm;
+import agents.Household;
+import environment.StatisticsSink.Column;
+
+/**
+ * Keeps a rolling digest of the state of a run, updated after every tick, so
+ * that two runs can be compared tick by tick without keeping their states
+ * (see {@linkplain GoldenRun}).<br>
+ * There is a digest per <i>field</i>: the balance of every account in the
+ * ledger, the employer of every household, the wages of the households and
+ * the wage offers of the firms, the stocks of the firms (and whether they are
+ * open), the prices of the firms, and each indicator of the
+ * {@linkplain StatisticsManager} (see {@linkplain Column}). Each update folds
+ * every value of a field into its digest, in the order the agents were
+ * created, so once a field diverged its digest differs at every later tick.
+ * An update is a single pass over the accounts, the households and the
+ * firms, far cheaper than the tick itself.
+ *
+ */
+public final class StateDigest {
+
+	/**
+	 * The fields digested besides the indicators.
+	 */
+	public enum Field {
+		BALANCES, EMPLOYMENT, WAGES, STOCKS, PRICES
+	}
+
+	private static final Field[] FIELDS = Field.values();
+
+	// FNV-1a, folding in a whole value at a time
+	private static final long BASIS = 0xCBF29CE484222325L;
+	private static final long PRIME = 0x100000001B3L;
+
+	private final long[] digests;
+
+	/**
+	 * Starts the digests of a new run.
+	 */
+	public StateDigest() {
+		digests = new long[getNames().length];
+		Arrays.fill(digests, BASIS);
+	}
+
+	/**
+	 * Carries on the digests of a run resumed after a tick, see
+	 * {@linkplain Checkpoint}.
+	 *
+	 * @param digests
+	 *            the digests after that tick, in the order of
+	 *            {@link #getNames()}
+	 */
+	public StateDigest(long[] digests) {
+		if (digests.length != getNames().length)
+			throw new IllegalArgumentException("Expected " + getNames().length + " digests, got " + digests.length);
+		this.digests = digests.clone();
+	}
+
+	/**
+	 * @return the name of each field, the {@linkplain Field}s then the
+	 *         {@linkplain Column}s
+	 */
+	public static String[] getNames() {
+		String[] names = new String[FIELDS.length + StatisticsSink.COLUMNS.length];
+		for (Field field : FIELDS)
+			names[field.ordinal()] = field.name();
+		for (Column column : StatisticsSink.COLUMNS)
+			names[FIELDS.length + column.ordinal()] = column.name();
+		return names;
+	}
+
+	/**
+	 * Folds the current state of the {@code economy} into the digests.
+	 *
+	 * @return the digests, in the order of {@link #getNames()}; the array is
+	 *         updated in place by the next call
+	 */
+	public long[] update(Economy economy) {
+		Bank bank = economy.getBank();
+		long balances = digests[Field.BALANCES.ordinal()];
+		for (int i = 0; i < bank.getAccounts(); i++)
+			balances = fold(balances, bank.getMicros(i));
+		digests[Field.BALANCES.ordinal()] = balances;
+
+		long employment = digests[Field.EMPLOYMENT.ordinal()];
+		long wages = digests[Field.WAGES.ordinal()];
+		for (Household hh : economy.getHouseholds()) {
+			Firm employer = hh.getEmployer();
+			employment = fold(employment, employer != null ? employer.getAccount().getId() : -1);
+			wages = fold(wages, Float.floatToIntBits(hh.getWage()));
+		}
+
+		long stocks = digests[Field.STOCKS.ordinal()];
+		long prices = digests[Field.PRICES.ordinal()];
+		for (Firm firm : economy.getFirms()) {
+			wages = fold(wages, Float.floatToIntBits(firm.getWageOffer()));
+			stocks = fold(stocks, firm.getStatus() ? firm.getStockSize() : -1);
+			prices = fold(prices, Float.floatToIntBits(firm.getGoodsPrice()));
+		}
+		digests[Field.EMPLOYMENT.ordinal()] = employment;
+		digests[Field.WAGES.ordinal()] = wages;
+		digests[Field.STOCKS.ordinal()] = stocks;
+		digests[Field.PRICES.ordinal()] = prices;
+
+		StatisticsManager statistics = economy.getStatistics();
+		for (Column column : StatisticsSink.COLUMNS) {
+			int field = FIELDS.length + column.ordinal();
+			digests[field] = fold(digests[field], Double.doubleToLongBits(column.value(statistics)));
+		}
+
+		return digests;
+	}
+
+	private static long fold(long digest, long value) {
+		return (digest ^ value) * PRIME;
+	}
+
+}
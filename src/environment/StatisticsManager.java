@@ -1,330 +1,386 @@
-/**
- * 
- */
-package environment;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-
-import agents.Firm;
-import agents.Government;
-import agents.Household;
-import repast.simphony.engine.watcher.Watch;
-import repast.simphony.engine.watcher.WatcherTriggerSchedule;
-import utilities.Properties;
-
-/**
- * @author Diogo L. Costa
- *
- */
-public class StatisticsManager {
-
-	private static List<Firm> firms = new ArrayList<Firm>();
-	private static List<Household> households = new ArrayList<Household>();
-	private static GoodsMarket goodsMarket;
-	private static Government government;
-
-	private float giniIndexIncome;
-	private float giniIndexConsumption;
-	private float giniIndexFunds;
-	private float giniIndexWage;
-	private float firmFunds;
-	private float householdFunds;
-	private int householdConsumption;
-	private int totalStock;
-	private int totalSoldGoods;
-	private float avgPracticedPrice;
-	private float GDP;
-	private int productionOutput;
-	private float averageWage;
-	private double inflation;
-	private long unfilledVacancies;
-	private static double employmentRate;
-
-	private float avgGdp;
-	private float avgGini;
-
-	protected StatisticsManager(List<Firm> contextFirms,
-			List<Household> contextHouseholds, GoodsMarket gm, Government gov) {
-		firms.addAll(contextFirms);
-		households.addAll(contextHouseholds);
-		goodsMarket = gm;
-		giniIndexIncome = 0;
-		government = gov;
-	}
-
-	@Watch(watcheeClassName = "agents.Firm", watcheeFieldNames = "endCycle", whenToTrigger = WatcherTriggerSchedule.IMMEDIATE)
-	public void calculateStatistics() {
-
-		// GINI INDEX
-		Collections.sort(households, new Comparator<Household>() {
-			@Override
-			public int compare(Household hh1, Household hh2) {
-				if (hh1.getIncome() < hh2.getIncome())
-					return -1;
-				if (hh1.getIncome() > hh2.getIncome())
-					return 1;
-				else
-					return 0;
-			}
-		});
-
-		float population = households.size(), numIncome = 0, denomIncome = 0;
-		for (int i = 1; i <= population; i++) {
-			Household household = households.get(i - 1);
-			numIncome += (population + 1 - i) * household.getIncome();
-			denomIncome += household.getIncome();
-		}
-
-		Collections.sort(households, new Comparator<Household>() {
-			@Override
-			public int compare(Household hh1, Household hh2) {
-				if (hh1.getWage() < hh2.getWage())
-					return -1;
-				if (hh1.getWage() > hh2.getWage())
-					return 1;
-				else
-					return 0;
-			}
-		});
-
-		float numWage = 0, denomWage = 0;
-		for (int i = 1; i <= population; i++) {
-			Household household = households.get(i - 1);
-			numWage += (population + 1 - i) * household.getWage();
-			denomWage += household.getWage();
-		}
-
-		Collections.sort(households, new Comparator<Household>() {
-			@Override
-			public int compare(Household hh1, Household hh2) {
-				if (hh1.getConsumption() < hh2.getConsumption())
-					return -1;
-				if (hh1.getConsumption() > hh2.getConsumption())
-					return 1;
-				else
-					return 0;
-			}
-		});
-
-		float numConsumption = 0, denomConsumption = 0;
-		for (int i = 1; i <= population; i++) {
-			Household household = households.get(i - 1);
-			numConsumption += (population + 1 - i) * household.getConsumption();
-			denomConsumption += household.getConsumption();
-		}
-
-		Collections.sort(households, new Comparator<Household>() {
-			@Override
-			public int compare(Household hh1, Household hh2) {
-				if (hh1.getBalance() < hh2.getBalance())
-					return -1;
-				if (hh1.getBalance() > hh2.getBalance())
-					return 1;
-				else
-					return 0;
-			}
-		});
-
-		float numFunds = 0, denomFunds = 0;
-		for (int i = 1; i <= population; i++) {
-			Household household = households.get(i - 1);
-			numFunds += (population + 1 - i) * household.getBalance();
-			denomFunds += household.getBalance();
-		}
-
-		giniIndexIncome = denomIncome > 0 ? (1 / population)
-				* (population + 1 - 2 * numIncome / denomIncome) : 0;
-		giniIndexConsumption = denomConsumption > 0 ? (1 / population)
-				* (population + 1 - 2 * numConsumption / denomConsumption) : 0;
-		giniIndexFunds = denomFunds > 0 ? (1 / population)
-				* (population + 1 - 2 * numFunds / denomFunds) : 0;
-		giniIndexWage = denomWage > 0 ? (1 / population)
-				* (population + 1 - 2 * numWage / denomWage) : 0;
-
-		// AVERAGE WAGE & UNFILLED VACANCIES & GDP & OUTPUT
-		float sum = 0;
-		float n = 0;
-		float gdp = 0;
-		int production = 0;
-		long sumUnfilledVacancies = 0;
-		firmFunds = 0;
-		totalSoldGoods = 0;
-		totalStock = 0;
-		for (Firm firm : firms) {
-			if (firm.getNumberOfEmployees() > 0) {
-				n += firm.getNumberOfEmployees();
-				sum += (firm.getNumberOfEmployees() * firm.getAverageWage());
-				sumUnfilledVacancies += firm.getUnfilledVacancies();
-			}
-
-			gdp += (firm.getPaidWages() + firm.getSoldGoodsProfits());
-			production += firm.getFinalProduction();
-			avgPracticedPrice += firm.getGoodsPrice();
-			firmFunds += firm.getBalance();
-			totalSoldGoods += firm.getSoldGoods();
-			totalStock += firm.getStockSize();
-		}
-
-		avgPracticedPrice /= firms.size();
-		productionOutput = production;
-		GDP = gdp;
-		unfilledVacancies = sumUnfilledVacancies;
-		averageWage = sum / n;
-
-		// % EMPLOYED
-		double count = 0;
-		householdConsumption = 0;
-		householdFunds = 0;
-		for (Household hh : households) {
-			if (hh.isEmployed())
-				count++;
-			householdConsumption += hh.getConsumption();
-			householdFunds += hh.getBalance();
-		}
-		employmentRate = count / households.size();
-
-		// INFLATION
-		inflation = goodsMarket.getInflation();
-
-		avgPracticedPrice += goodsMarket.getCurrentAvgPrice();
-
-		// Only needs to calculate depending on the time window chosen to
-		// extract data
-		if (Properties.getIteration() >= Properties.START_TICK
-				& Properties.getIteration() <= Properties.END_TICK) {
-			avgGdp += householdConsumption;
-			avgGini += giniIndexIncome;
-		}
-
-		if (Properties.getIteration() == Properties.END_TICK) {
-			avgGdp /= 1200;
-			avgGini /= 1200;
-		}
-
-	}
-
-	public double getGiniIndexIncome() {
-		return giniIndexIncome;
-	}
-
-	public double getGiniIndexConsumption() {
-		return giniIndexConsumption;
-	}
-
-	public double getGiniIndexFunds() {
-		return giniIndexFunds;
-	}
-
-	public double getGiniIndexWage() {
-		return giniIndexWage;
-	}
-
-	public double getAverageWage() {
-		return averageWage;
-	}
-
-	public static double getEmploymentRate() {
-		return employmentRate;
-	}
-
-	public static double getUnemployementRate() {
-		return 1 - employmentRate;
-	}
-
-	public static float getLowesReservationWage() {
-		float lowest = Float.MAX_VALUE;
-
-		for (Household hh : households) {
-			if (hh.getReservationWage() < lowest)
-				lowest = hh.getReservationWage();
-		}
-
-		return lowest;
-	}
-
-	public static float getLowestPrice() {
-		float lowest = Float.MAX_VALUE;
-		for (Firm firm : firms)
-			if (firm.getLowestPrice() < lowest)
-				lowest = firm.getLowestPrice();
-
-		return lowest;
-	}
-
-	public final int getEmployed() {
-		int count = 0;
-		for (Household hh : households) {
-			if (hh.isEmployed())
-				count++;
-		}
-		return count;
-	}
-
-	public final double getInflation() {
-		return inflation;
-	}
-
-	public final double getUnfilledVacancies() {
-		return unfilledVacancies;
-	}
-
-	public final float getGDP() {
-		return GDP;
-	}
-
-	public final int getProductionOutput() {
-		return productionOutput;
-	}
-
-	public final float getFirmFunds() {
-		return firmFunds;
-	}
-
-	public final float getHouseholdFunds() {
-		return householdFunds;
-	}
-
-	public final float getHouseholdConsumption() {
-		return householdConsumption;
-	}
-
-	public final float getGovFunds() {
-		return government.getFunds();
-	}
-
-	public float getTotalStock() {
-		return totalStock;
-	}
-
-	public float getTotalSoldGoods() {
-		return totalSoldGoods;
-	}
-
-	public float getAvgGoodsPrice() {
-		return goodsMarket.getCurrentAvgPrice();
-	}
-
-	public float getAvgPracticedPrice() {
-		return avgPracticedPrice;
-	}
-
-	public float getAvgGDP() {
-		return avgGdp;
-	}
-
-	public float getAvgGini() {
-		return avgGini;
-	}
-
-	public static void clear() {
-		firms = new ArrayList<Firm>();
-		households = new ArrayList<Household>();
-		goodsMarket = null;
-		government = null;
-		employmentRate = 0;
-
-	}
-}
+/**
+ * 
+ */
+package environment;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import agents.Firm;
+import agents.Government;
+import repast.simphony.engine.watcher.Watch;
+import repast.simphony.engine.watcher.WatcherTriggerSchedule;
+import utilities.Money;
+import utilities.Properties;
+
+/**
+ * @author Diogo L. Costa
+ *
+ */
+public class StatisticsManager {
+
+	private final List<Firm> firms;
+	private final HouseholdStore households;
+	private final Government government;
+	private final Economy economy;
+
+	private GiniEngine giniEngine = new GiniEngine(Properties.GINI_BUCKETS);
+
+	private float giniIndexIncome;
+	private float giniIndexConsumption;
+	private float giniIndexFunds;
+	private float giniIndexWage;
+	// The money totals are exact sums of micro-units (see Money)
+	private long firmFunds;
+	private long householdFunds;
+	private int householdConsumption;
+	private int totalStock;
+	private int totalSoldGoods;
+	private float avgPracticedPrice;
+	private long GDP;
+	private int productionOutput;
+	private float averageWage;
+	private double inflation;
+	private float currentAveragePrice = 0;
+	private float previousAveragePrice = 0;
+	private long unfilledVacancies;
+	private double employmentRate;
+
+	// Cached minima, see getLowesReservationWage() and getLowestPrice()
+	private float lowestReservationWage;
+	private boolean reservationWageCached = false;
+	private float lowestPrice;
+	private boolean lowestPriceCached = false;
+
+	// While the regions of a sharded run are running, the minima keep the
+	// value they had at the last barrier, see freeze()
+	private boolean frozen = false;
+
+	private float avgGdp;
+	private float avgGini;
+
+	/**
+	 * The list is kept, not copied: the {@linkplain Economy} fills it with its
+	 * firms once every entity they depend on, this one included, was created.
+	 */
+	protected StatisticsManager(Economy economy, List<Firm> contextFirms) {
+		this.economy = economy;
+		firms = contextFirms;
+		households = economy.getHouseholdStore();
+		government = economy.getGovernment();
+		giniIndexIncome = 0;
+	}
+
+	@Watch(watcheeClassName = "agents.Firm", watcheeFieldNames = "endCycle", whenToTrigger = WatcherTriggerSchedule.IMMEDIATE)
+	public void calculateStatistics() {
+
+		// GINI INDEX
+		giniEngine.snapshot(households);
+		boolean sketch = households.size() > Properties.GINI_SKETCH_THRESHOLD;
+
+		giniIndexIncome = giniEngine.giniIncome(sketch);
+		giniIndexWage = giniEngine.giniWage(sketch);
+		giniIndexConsumption = giniEngine.giniConsumption(sketch);
+		giniIndexFunds = giniEngine.giniFunds(sketch);
+
+		// AVERAGE WAGE & UNFILLED VACANCIES & GDP & OUTPUT
+		float sum = 0;
+		float n = 0;
+		long gdp = 0;
+		int production = 0;
+		long sumUnfilledVacancies = 0;
+		firmFunds = 0;
+		totalSoldGoods = 0;
+		totalStock = 0;
+		for (Firm firm : firms) {
+			if (firm.getNumberOfEmployees() > 0) {
+				n += firm.getNumberOfEmployees();
+				sum += (firm.getNumberOfEmployees() * firm.getAverageWage());
+				sumUnfilledVacancies += firm.getUnfilledVacancies();
+			}
+
+			gdp += firm.getValueAdded();
+			production += firm.getFinalProduction();
+			avgPracticedPrice += firm.getGoodsPrice();
+			firmFunds += firm.getAccount().getMicros();
+			totalSoldGoods += firm.getSoldGoods();
+			totalStock += firm.getStockSize();
+		}
+
+		avgPracticedPrice /= firms.size();
+		productionOutput = production;
+		GDP = gdp;
+		unfilledVacancies = sumUnfilledVacancies;
+		averageWage = sum / n;
+
+		// % EMPLOYED
+		double count = giniEngine.getEmployed();
+		householdConsumption = giniEngine.getTotalConsumption();
+		householdFunds = giniEngine.getTotalFunds();
+		employmentRate = count / households.size();
+
+		// INFLATION
+		inflation = calculateInflation();
+
+		avgPracticedPrice += currentAveragePrice;
+
+		// Only needs to calculate depending on the time window chosen to
+		// extract data
+		if (economy.getIteration() >= Properties.START_TICK
+				& economy.getIteration() <= Properties.END_TICK) {
+			avgGdp += householdConsumption;
+			avgGini += giniIndexIncome;
+		}
+
+		if (economy.getIteration() == Properties.END_TICK) {
+			avgGdp /= 1200;
+			avgGini /= 1200;
+		}
+
+	}
+
+	/**
+	 * @return the change of the average price of the goods for sale, in every
+	 *         market, since the last time it was calculated
+	 */
+	private double calculateInflation() {
+		float[] totals = new float[2];
+		for (Region region : economy.getRegions())
+			region.getGoodsMarket().sumOffers(totals);
+		float sumPrices = totals[0];
+		float totalGoods = totals[1];
+
+		double inflation = 0;
+		currentAveragePrice = totalGoods > 0 ? sumPrices / totalGoods : 0;
+		if (previousAveragePrice != 0) {
+			inflation = (currentAveragePrice - previousAveragePrice)
+					/ previousAveragePrice;
+			previousAveragePrice = currentAveragePrice;
+			return inflation;
+		} else {
+			previousAveragePrice = currentAveragePrice;
+			return 0;
+		}
+	}
+
+	void writeState(DataOutput out) throws IOException {
+		out.writeFloat(giniIndexIncome);
+		out.writeFloat(giniIndexConsumption);
+		out.writeFloat(giniIndexFunds);
+		out.writeFloat(giniIndexWage);
+		out.writeLong(firmFunds);
+		out.writeLong(householdFunds);
+		out.writeInt(householdConsumption);
+		out.writeInt(totalStock);
+		out.writeInt(totalSoldGoods);
+		out.writeFloat(avgPracticedPrice);
+		out.writeLong(GDP);
+		out.writeInt(productionOutput);
+		out.writeFloat(averageWage);
+		out.writeDouble(inflation);
+		out.writeFloat(currentAveragePrice);
+		out.writeFloat(previousAveragePrice);
+		out.writeLong(unfilledVacancies);
+		out.writeDouble(employmentRate);
+		out.writeFloat(avgGdp);
+		out.writeFloat(avgGini);
+	}
+
+	void readState(DataInput in) throws IOException {
+		giniIndexIncome = in.readFloat();
+		giniIndexConsumption = in.readFloat();
+		giniIndexFunds = in.readFloat();
+		giniIndexWage = in.readFloat();
+		firmFunds = in.readLong();
+		householdFunds = in.readLong();
+		householdConsumption = in.readInt();
+		totalStock = in.readInt();
+		totalSoldGoods = in.readInt();
+		avgPracticedPrice = in.readFloat();
+		GDP = in.readLong();
+		productionOutput = in.readInt();
+		averageWage = in.readFloat();
+		inflation = in.readDouble();
+		currentAveragePrice = in.readFloat();
+		previousAveragePrice = in.readFloat();
+		unfilledVacancies = in.readLong();
+		employmentRate = in.readDouble();
+		avgGdp = in.readFloat();
+		avgGini = in.readFloat();
+
+		// the minima are computed again from the restored agents
+		reservationWageCached = false;
+		lowestPriceCached = false;
+	}
+
+	public double getGiniIndexIncome() {
+		return giniIndexIncome;
+	}
+
+	public double getGiniIndexConsumption() {
+		return giniIndexConsumption;
+	}
+
+	public double getGiniIndexFunds() {
+		return giniIndexFunds;
+	}
+
+	public double getGiniIndexWage() {
+		return giniIndexWage;
+	}
+
+	public double getAverageWage() {
+		return averageWage;
+	}
+
+	public double getEmploymentRate() {
+		return employmentRate;
+	}
+
+	public double getUnemployementRate() {
+		return 1 - employmentRate;
+	}
+
+	/**
+	 * The minimum is kept as a cached aggregate: it is only recomputed, at
+	 * most once, after the household holding it raised its reservation wage.
+	 * 
+	 * @return the lowest reservation wage among all households
+	 */
+	public float getLowesReservationWage() {
+		if (!reservationWageCached) {
+			lowestReservationWage = households.getLowestReservationWage();
+			reservationWageCached = true;
+		}
+
+		return lowestReservationWage;
+	}
+
+	/**
+	 * The minimum is kept as a cached aggregate: it is only recomputed, at
+	 * most once, after the firm holding it raised its lowest price.
+	 * 
+	 * @return the lowest price among all firms
+	 */
+	public float getLowestPrice() {
+		if (!lowestPriceCached) {
+			float lowest = Float.MAX_VALUE;
+			for (Firm firm : firms)
+				if (firm.getLowestPrice() < lowest)
+					lowest = firm.getLowestPrice();
+
+			lowestPrice = lowest;
+			lowestPriceCached = true;
+		}
+
+		return lowestPrice;
+	}
+
+	/**
+	 * Notifies that a household changed its reservation wage from
+	 * {@code previous} to {@code current}.
+	 */
+	public void reservationWageChanged(float previous, float current) {
+		if (reservationWageCached && !frozen) {
+			if (current <= lowestReservationWage)
+				lowestReservationWage = current;
+			else if (previous == lowestReservationWage)
+				reservationWageCached = false;
+		}
+	}
+
+	/**
+	 * Notifies that a firm changed its lowest price from {@code previous} to
+	 * {@code current}.
+	 */
+	public void lowestPriceChanged(float previous, float current) {
+		if (lowestPriceCached && !frozen) {
+			if (current <= lowestPrice)
+				lowestPrice = current;
+			else if (previous == lowestPrice)
+				lowestPriceCached = false;
+		}
+	}
+
+	/**
+	 * Computes both minima and keeps them until {@link #thaw()}, ignoring the
+	 * changes notified in the meantime, so that the regions of a sharded run
+	 * can read them concurrently (see {@linkplain Region}).
+	 */
+	void freeze() {
+		getLowesReservationWage();
+		getLowestPrice();
+		frozen = true;
+	}
+
+	/**
+	 * Ends a {@link #freeze()}; the minima are computed again when next read.
+	 */
+	void thaw() {
+		frozen = false;
+		reservationWageCached = false;
+		lowestPriceCached = false;
+	}
+
+	public final int getEmployed() {
+		return households.getEmployed();
+	}
+
+	public final double getInflation() {
+		return inflation;
+	}
+
+	public final double getUnfilledVacancies() {
+		return unfilledVacancies;
+	}
+
+	public final float getGDP() {
+		return Money.toFloat(GDP);
+	}
+
+	public final int getProductionOutput() {
+		return productionOutput;
+	}
+
+	public final float getFirmFunds() {
+		return Money.toFloat(firmFunds);
+	}
+
+	public final float getHouseholdFunds() {
+		return Money.toFloat(householdFunds);
+	}
+
+	public final float getHouseholdConsumption() {
+		return householdConsumption;
+	}
+
+	public final float getGovFunds() {
+		return government.getFunds();
+	}
+
+	public float getTotalStock() {
+		return totalStock;
+	}
+
+	public float getTotalSoldGoods() {
+		return totalSoldGoods;
+	}
+
+	public float getAvgGoodsPrice() {
+		return currentAveragePrice;
+	}
+
+	public float getAvgPracticedPrice() {
+		return avgPracticedPrice;
+	}
+
+	public float getAvgGDP() {
+		return avgGdp;
+	}
+
+	public float getAvgGini() {
+		return avgGini;
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import environment.StatisticsSink.Column;
+import environment.StatisticsSink.Type;
+
+/**
+ * Loads the files written by a {@linkplain StatisticsSink}.<br>
+ * Each segment of the file is memory mapped and a whole column is read with a
+ * single pass over its values, without parsing. The rows committed when the
+ * file is loaded are read, so a file can be loaded while its run is still
+ * going; the rows committed since are ignored.
+ *
+ */
+public class StatisticsReader {
+
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	// the rows of each segment when the file was loaded
+	private final List<Integer> counts = new ArrayList<Integer>();
+	private int rows = 0;
+
+	/**
+	 * @param file
+	 *            a file written by a {@linkplain StatisticsSink}
+	 * @throws IOException
+	 *             if the file cannot be mapped or is not a statistics file
+	 */
+	public StatisticsReader(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = input.getChannel();
+			long length = channel.size();
+			long position = 0;
+			while (position + StatisticsSink.HEADER <= length) {
+				MappedByteBuffer header = map(channel, position, StatisticsSink.HEADER);
+				if (header.getInt(0) != StatisticsSink.MAGIC || header.getShort(4) != StatisticsSink.VERSION)
+					throw new IOException("Not a statistics file: " + file);
+				if (header.getShort(6) != StatisticsSink.COLUMNS.length)
+					throw new IOException("Unexpected number of columns in " + file + ": " + header.getShort(6));
+
+				int size = StatisticsSink.segmentSize(header.getInt(8));
+				MappedByteBuffer segment = map(channel, position, size);
+				int count = segment.getInt(StatisticsSink.ROWS);
+				segments.add(segment);
+				counts.add(count);
+				rows += count;
+				position += size;
+			}
+		} finally {
+			// the mappings outlive the channel
+			input.close();
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long position, int size) throws IOException {
+		MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	/**
+	 * @return the number of rows, i.e. of ticks, in the file
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return the tick of each row
+	 */
+	public int[] getTicks() {
+		int[] ticks = new int[rows];
+		int row = 0;
+		for (int s = 0; s < segments.size(); s++) {
+			MappedByteBuffer segment = segments.get(s);
+			int count = counts.get(s);
+			int offset = StatisticsSink.HEADER + StatisticsSink.typesSize();
+			for (int i = 0; i < count; i++)
+				ticks[row++] = segment.getInt(offset + i * 4);
+		}
+		return ticks;
+	}
+
+	/**
+	 * @return the values of the {@code column} in each row
+	 */
+	public double[] getColumn(Column column) {
+		Type type = column.getType();
+		double[] values = new double[rows];
+		int row = 0;
+		for (int s = 0; s < segments.size(); s++) {
+			MappedByteBuffer segment = segments.get(s);
+			int capacity = segment.getInt(8);
+			int count = counts.get(s);
+
+			int offset = StatisticsSink.HEADER + StatisticsSink.typesSize() + capacity * 4;
+			for (int i = 0; i < column.ordinal(); i++)
+				offset += capacity * StatisticsSink.COLUMNS[i].getType().getWidth();
+
+			for (int i = 0; i < count; i++) {
+				int at = offset + i * type.getWidth();
+				switch (type) {
+				case INT:
+					values[row++] = segment.getInt(at);
+					break;
+				case FLOAT:
+					values[row++] = segment.getFloat(at);
+					break;
+				case DOUBLE:
+					values[row++] = segment.getDouble(at);
+					break;
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Writes the given {@code columns} (all of them if none) of every row as
+	 * comma separated values.
+	 */
+	public void print(PrintStream out, Column... columns) {
+		if (columns.length == 0)
+			columns = StatisticsSink.COLUMNS;
+
+		StringBuilder header = new StringBuilder("tick");
+		double[][] values = new double[columns.length][];
+		for (int i = 0; i < columns.length; i++) {
+			header.append(',').append(columns[i].name());
+			values[i] = getColumn(columns[i]);
+		}
+		out.println(header);
+
+		int[] ticks = getTicks();
+		for (int row = 0; row < rows; row++) {
+			StringBuilder line = new StringBuilder().append(ticks[row]);
+			for (int i = 0; i < columns.length; i++) {
+				line.append(',');
+				if (columns[i].getType() == Type.DOUBLE)
+					line.append(values[i][row]);
+				else if (columns[i].getType() == Type.FLOAT)
+					line.append((float) values[i][row]);
+				else
+					line.append((long) values[i][row]);
+			}
+			out.println(line);
+		}
+	}
+
+	/**
+	 * Usage: {@code StatisticsReader file [column...]}<br>
+	 * Prints the file as comma separated values, e.g.
+	 * {@code StatisticsReader run-1.stats GDP GINI_INCOME}.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: StatisticsReader file [column...]");
+			System.exit(-1);
+		}
+
+		Column[] columns = new Column[args.length - 1];
+		for (int i = 1; i < args.length; i++)
+			columns[i - 1] = Column.valueOf(args[i]);
+
+		new StatisticsReader(new File(args[0])).print(System.out, columns);
+	}
+
+}
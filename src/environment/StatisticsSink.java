@@ -0,0 +1,343 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Writes the indicators of the {@linkplain StatisticsManager}, one row per
+ * tick, to a compact columnar binary file.<br>
+ * The file is a sequence of fixed size <i>segments</i>, each one memory mapped
+ * while it is written and holding up to {@code capacity} rows:
+ *
+ * <pre>
+ * header   magic (int), version (short), columns (short), capacity (int),
+ *          rows (int), reserved (16 bytes)
+ * types    the {@linkplain Type} of each column (1 byte each), padded to 8
+ * ticks    capacity ints
+ * columns  capacity values of each {@linkplain Column}, in order
+ * </pre>
+ *
+ * All values are little endian. The file is append only: a row is written
+ * in place and then committed by increasing the segment's row count, so a
+ * {@linkplain StatisticsReader} only sees whole rows. A sink replaces the
+ * contents of an existing file, unless it is opened to append to it: it then
+ * carries on after the file's last row. A sweep then loads millions of rows
+ * without parsing text, see {@linkplain StatisticsReader}.
+ *
+ */
+public class StatisticsSink {
+
+	static final int MAGIC = 0x53434D41; // "AMCS"
+	static final short VERSION = 1;
+	static final int HEADER = 32;
+	static final int ROWS = 12;
+
+	/**
+	 * The binary representation of a column's values.
+	 */
+	public enum Type {
+		INT(4), FLOAT(4), DOUBLE(8);
+
+		private final int width;
+
+		private Type(int width) {
+			this.width = width;
+		}
+
+		/**
+		 * @return the bytes taken by a value
+		 */
+		public int getWidth() {
+			return width;
+		}
+	}
+
+	/**
+	 * The indicators written for each tick, in the order of their columns.
+	 */
+	public enum Column {
+		GDP(Type.FLOAT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getGDP();
+			}
+		},
+		PRODUCTION_OUTPUT(Type.INT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getProductionOutput();
+			}
+		},
+		EMPLOYMENT_RATE(Type.DOUBLE) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getEmploymentRate();
+			}
+		},
+		AVERAGE_WAGE(Type.FLOAT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getAverageWage();
+			}
+		},
+		INFLATION(Type.DOUBLE) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getInflation();
+			}
+		},
+		GINI_INCOME(Type.FLOAT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getGiniIndexIncome();
+			}
+		},
+		GINI_WAGE(Type.FLOAT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getGiniIndexWage();
+			}
+		},
+		GINI_CONSUMPTION(Type.FLOAT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getGiniIndexConsumption();
+			}
+		},
+		GINI_FUNDS(Type.FLOAT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getGiniIndexFunds();
+			}
+		},
+		GOV_FUNDS(Type.FLOAT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getGovFunds();
+			}
+		},
+		FIRM_FUNDS(Type.FLOAT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getFirmFunds();
+			}
+		},
+		HOUSEHOLD_FUNDS(Type.FLOAT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getHouseholdFunds();
+			}
+		},
+		HOUSEHOLD_CONSUMPTION(Type.INT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getHouseholdConsumption();
+			}
+		},
+		TOTAL_STOCK(Type.INT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getTotalStock();
+			}
+		},
+		TOTAL_SOLD_GOODS(Type.INT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getTotalSoldGoods();
+			}
+		},
+		AVG_GOODS_PRICE(Type.FLOAT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getAvgGoodsPrice();
+			}
+		},
+		AVG_PRACTICED_PRICE(Type.FLOAT) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getAvgPracticedPrice();
+			}
+		},
+		UNFILLED_VACANCIES(Type.DOUBLE) {
+			@Override
+			double value(StatisticsManager statistics) {
+				return statistics.getUnfilledVacancies();
+			}
+		};
+
+		private final Type type;
+
+		private Column(Type type) {
+			this.type = type;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		abstract double value(StatisticsManager statistics);
+	}
+
+	static final Column[] COLUMNS = Column.values();
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int capacity;
+	private final int size;
+
+	private MappedByteBuffer segment;
+	private long position;
+	private int rows;
+
+	/**
+	 * Opens a sink on the given {@code file}, creating it if needed and
+	 * replacing its contents otherwise.
+	 *
+	 * @param file
+	 * @param capacity
+	 *            the rows of each new segment
+	 * @throws IOException
+	 *             if the file cannot be mapped
+	 */
+	public StatisticsSink(File file, int capacity) throws IOException {
+		this(file, capacity, false);
+	}
+
+	/**
+	 * Opens a sink on the given {@code file}, creating it if needed.
+	 *
+	 * @param file
+	 * @param capacity
+	 *            the rows of each new segment
+	 * @param append
+	 *            whether the new rows are appended after those the file
+	 *            already holds, rather than replacing them
+	 * @throws IOException
+	 *             if the file cannot be mapped or, when appending, is not a
+	 *             statistics file
+	 */
+	public StatisticsSink(File file, int capacity, boolean append) throws IOException {
+		this.capacity = (Math.max(capacity, 1) + 7) & ~7;
+		size = segmentSize(this.capacity);
+		this.file = new RandomAccessFile(file, "rw");
+		channel = this.file.getChannel();
+
+		try {
+			if (!append)
+				this.file.setLength(0);
+
+			// carry on after the last segment, if it has room left
+			position = 0;
+			long length = channel.size();
+			while (position < length) {
+				MappedByteBuffer existing = map(position, HEADER);
+				if (existing.getInt(0) != MAGIC || existing.getShort(6) != COLUMNS.length)
+					throw new IOException("Not a statistics file: " + file);
+
+				int segmentCapacity = existing.getInt(8);
+				int segmentRows = existing.getInt(ROWS);
+				if (segmentRows < segmentCapacity && segmentCapacity == this.capacity) {
+					segment = map(position, size);
+					rows = segmentRows;
+					return;
+				}
+				position += segmentSize(segmentCapacity);
+			}
+			newSegment();
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Appends the indicators of the {@code tick} to the file.
+	 *
+	 * @param tick
+	 * @param statistics
+	 * @throws IOException
+	 *             if a new segment cannot be mapped
+	 */
+	public void append(int tick, StatisticsManager statistics) throws IOException {
+		if (rows == capacity) {
+			position += size;
+			newSegment();
+		}
+
+		int offset = HEADER + typesSize();
+		segment.putInt(offset + rows * 4, tick);
+		offset += capacity * 4;
+
+		for (Column column : COLUMNS) {
+			double value = column.value(statistics);
+			Type type = column.getType();
+			int at = offset + rows * type.getWidth();
+			switch (type) {
+			case INT:
+				segment.putInt(at, (int) value);
+				break;
+			case FLOAT:
+				segment.putFloat(at, (float) value);
+				break;
+			case DOUBLE:
+				segment.putDouble(at, value);
+				break;
+			}
+			offset += capacity * type.getWidth();
+		}
+
+		// commit the row
+		segment.putInt(ROWS, ++rows);
+	}
+
+	/**
+	 * Flushes the rows to the disk and closes the file.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		segment.force();
+		file.close();
+	}
+
+	private void newSegment() throws IOException {
+		segment = map(position, size);
+		segment.putInt(0, MAGIC);
+		segment.putShort(4, VERSION);
+		segment.putShort(6, (short) COLUMNS.length);
+		segment.putInt(8, capacity);
+		segment.putInt(ROWS, 0);
+		for (int i = 0; i < COLUMNS.length; i++)
+			segment.put(HEADER + i, (byte) COLUMNS[i].getType().ordinal());
+		rows = 0;
+	}
+
+	private MappedByteBuffer map(long at, int length) throws IOException {
+		MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, at, length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	static int typesSize() {
+		return (COLUMNS.length + 7) & ~7;
+	}
+
+	/**
+	 * @return the bytes taken by a segment of {@code capacity} rows
+	 */
+	static int segmentSize(int capacity) {
+		int row = 4;
+		for (Column column : COLUMNS)
+			row += column.getType().getWidth();
+		return HEADER + typesSize() + capacity * row;
+	}
+
+}
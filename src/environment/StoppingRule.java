@@ -0,0 +1,145 @@
+/**
+ *
+ */
+package environment;
+
+import java.util.Locale;
+
+/**
+ * Decides whether a run of a sweep can stop before its last tick (see
+ * {@linkplain SweepScheduler}).<br>
+ * A rule is asked after every tick of a run and may keep track of the run's
+ * history, so each run is given its own rule by {@link #newRule()}.
+ *
+ */
+public interface StoppingRule {
+
+	/**
+	 * @return a rule with the same settings and no history, for a new run
+	 */
+	StoppingRule newRule();
+
+	/**
+	 * @param economy
+	 *            the economy of the run
+	 * @param tick
+	 *            the tick just run
+	 * @return why the run must stop now, or {@code null} to carry on
+	 */
+	String check(Economy economy, int tick);
+
+	/**
+	 * Stops an economy that collapsed: every firm closed, or no household was
+	 * employed for a number of ticks in a row.
+	 */
+	public final class Collapse implements StoppingRule {
+
+		private final int unemployedTicks;
+		private int count = 0;
+
+		/**
+		 * @param unemployedTicks
+		 *            the ticks in a row without any employed household after
+		 *            which the economy is deemed collapsed
+		 */
+		public Collapse(int unemployedTicks) {
+			this.unemployedTicks = unemployedTicks;
+		}
+
+		@Override
+		public StoppingRule newRule() {
+			return new Collapse(unemployedTicks);
+		}
+
+		@Override
+		public String check(Economy economy, int tick) {
+			if (economy.getNumberOfOpenFirms() == 0)
+				return "collapse: every firm closed";
+
+			if (economy.getStatistics().getEmploymentRate() == 0)
+				count++;
+			else
+				count = 0;
+
+			if (count >= unemployedTicks)
+				return "collapse: no employment for " + count + " ticks";
+			return null;
+		}
+	}
+
+	/**
+	 * Stops an economy that reached a steady state: the averages of the GDP
+	 * and of the income Gini index over the last {@code window} ticks moved by
+	 * less than {@code tolerance} (relatively) from those of the previous
+	 * {@code window} ticks.
+	 */
+	public final class SteadyState implements StoppingRule {
+
+		private final int window;
+		private final double tolerance;
+		private final int warmup;
+
+		// The last 2 * window values, as a ring
+		private final double[] gdp;
+		private final double[] gini;
+		private int count = 0;
+
+		/**
+		 * @param window
+		 *            the ticks of each of the two compared averages
+		 * @param tolerance
+		 *            the largest relative change of both averages in a
+		 *            steady state
+		 * @param warmup
+		 *            the ticks before which the run is never stopped
+		 */
+		public SteadyState(int window, double tolerance, int warmup) {
+			this.window = window;
+			this.tolerance = tolerance;
+			this.warmup = warmup;
+			gdp = new double[2 * window];
+			gini = new double[2 * window];
+		}
+
+		@Override
+		public StoppingRule newRule() {
+			return new SteadyState(window, tolerance, warmup);
+		}
+
+		@Override
+		public String check(Economy economy, int tick) {
+			StatisticsManager statistics = economy.getStatistics();
+			gdp[count % gdp.length] = statistics.getGDP();
+			gini[count % gini.length] = statistics.getGiniIndexIncome();
+			count++;
+
+			if (tick < warmup || count < gdp.length)
+				return null;
+
+			double gdpChange = change(gdp);
+			double giniChange = change(gini);
+			if (gdpChange < tolerance && giniChange < tolerance)
+				return String.format(Locale.ROOT,
+						"steady state: GDP and Gini moved by %.4f and %.4f over %d ticks", gdpChange, giniChange,
+						window);
+			return null;
+		}
+
+		/**
+		 * @return the relative change between the averages of the older and
+		 *         the newer half of the ring
+		 */
+		private double change(double[] values) {
+			double older = 0;
+			double newer = 0;
+			for (int i = 0; i < window; i++) {
+				older += values[(count + i) % values.length];
+				newer += values[(count + window + i) % values.length];
+			}
+			if (older == 0)
+				return newer == 0 ? 0 : Double.POSITIVE_INFINITY;
+			return Math.abs(newer - older) / Math.abs(older);
+		}
+	}
+
+}
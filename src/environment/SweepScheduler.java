@@ -0,0 +1,388 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import utilities.Configuration;
+import utilities.Properties;
+
+/**
+ * Runs a sweep over a grid of parameters and seeds, in a single JVM.<br>
+ * The grid is expanded into one task per run (see {@link #grid} and
+ * {@link #fromBatchParameters(File)}), and the tasks are run on a
+ * work-stealing {@linkplain ForkJoinPool}, so that threads done with short
+ * runs take over the pending ones. Each run is stopped at the last tick or as
+ * soon as one of the {@linkplain StoppingRule}s tells so, e.g. once its
+ * economy collapsed; the tick and the reason it stopped at are kept in its
+ * {@linkplain Result}.<br>
+ * <br>
+ * If an output directory is given, the indicators of run {@code i} are
+ * written to {@code run-<i>.stats} (see {@linkplain StatisticsSink}), and the
+ * summary of the sweep to {@code sweep.csv}; both replace the files of a
+ * previous sweep in the same directory.
+ *
+ */
+public class SweepScheduler {
+
+	/**
+	 * A run of the sweep: a configuration and a seed.
+	 */
+	public static final class Point {
+		private final int index;
+		private final Configuration configuration;
+		private final long seed;
+
+		Point(int index, Configuration configuration, long seed) {
+			this.index = index;
+			this.configuration = configuration;
+			this.seed = seed;
+		}
+
+		/**
+		 * @return the position of the run in the sweep
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		public Configuration getConfiguration() {
+			return configuration;
+		}
+
+		public long getSeed() {
+			return seed;
+		}
+	}
+
+	/**
+	 * How a run of the sweep ended.
+	 */
+	public static final class Result {
+		private final Point point;
+		private final int ticks;
+		private final String reason;
+
+		Result(Point point, int ticks, String reason) {
+			this.point = point;
+			this.ticks = ticks;
+			this.reason = reason;
+		}
+
+		public Point getPoint() {
+			return point;
+		}
+
+		/**
+		 * @return the number of ticks run
+		 */
+		public int getTicks() {
+			return ticks;
+		}
+
+		/**
+		 * @return why the run stopped: {@code "completed"} if it reached the
+		 *         last tick, the reason given by a {@linkplain StoppingRule},
+		 *         or the failure of the run
+		 */
+		public String getReason() {
+			return reason;
+		}
+	}
+
+	static final String COMPLETED = "completed";
+
+	private final ForkJoinPool pool;
+	private final int ticks;
+	private final File directory;
+	private final List<StoppingRule> rules;
+
+	/**
+	 * @param threads
+	 *            the number of runs executed at the same time
+	 * @param ticks
+	 *            the last tick of each run
+	 * @param directory
+	 *            where the results are written, or {@code null}
+	 * @param rules
+	 *            the rules that may stop a run early; each run is given its
+	 *            own copy of them (see {@link StoppingRule#newRule()})
+	 */
+	public SweepScheduler(int threads, int ticks, File directory, StoppingRule... rules) {
+		this.ticks = ticks;
+		this.directory = directory;
+		this.rules = Arrays.asList(rules);
+		pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Expands a grid: every combination of the given values of the
+	 * parameters, applied to the {@code base} configuration, is run with every
+	 * seed.
+	 *
+	 * @param base
+	 *            the configuration the grid's values are applied to
+	 * @param names
+	 *            the names of the parameters (as in {@code parameters.xml}),
+	 *            from the outermost to the innermost dimension of the grid
+	 * @param values
+	 *            the values of each parameter
+	 * @param seeds
+	 * @return the runs of the sweep
+	 */
+	public static List<Point> grid(Configuration base, String[] names, String[][] values, long[] seeds) {
+		List<Configuration> configurations = Collections.singletonList(base);
+		for (int d = 0; d < names.length; d++) {
+			List<Configuration> expanded = new ArrayList<Configuration>();
+			for (Configuration configuration : configurations)
+				for (String value : values[d])
+					expanded.add(configuration.with(names[d], value));
+			configurations = expanded;
+		}
+
+		List<Point> points = new ArrayList<Point>();
+		for (long seed : seeds)
+			for (Configuration configuration : configurations)
+				points.add(new Point(points.size(), configuration, seed));
+		return points;
+	}
+
+	/**
+	 * Reads the grid of a Repast batch parameters file, such as
+	 * {@code batch/batch_params.xml}: the constants are applied to the
+	 * defaults of the model, and the lists (nested or not) are expanded into
+	 * every combination of their values. The seeds are the values of
+	 * {@code randomSeed}; parameters the model does not know of (e.g.
+	 * {@code Repetitions}) are ignored.
+	 *
+	 * @param file
+	 * @return the runs of the sweep
+	 * @throws IOException
+	 *             if the file cannot be read or parsed
+	 */
+	public static List<Point> fromBatchParameters(File file) throws IOException {
+		Element sweep;
+		try {
+			sweep = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getDocumentElement();
+		} catch (ParserConfigurationException | SAXException e) {
+			throw new IOException("Cannot parse " + file, e);
+		}
+
+		List<String> names = new ArrayList<String>();
+		List<String[]> values = new ArrayList<String[]>();
+		Configuration base = Configuration.defaults();
+		long[] seeds = { 1 };
+
+		// the nested parameters are visited from the outermost
+		List<Element> pending = children(sweep);
+		while (!pending.isEmpty()) {
+			Element parameter = pending.remove(0);
+			pending.addAll(children(parameter));
+
+			String name = parameter.getAttribute("name");
+			String[] list = parameter.getAttribute("type").equals("list")
+					? parameter.getAttribute("values").trim().split("\\s+")
+					: new String[] { parameter.getAttribute("value").trim() };
+
+			try {
+				if (name.equals("randomSeed")) {
+					seeds = new long[list.length];
+					for (int i = 0; i < list.length; i++)
+						seeds[i] = Long.parseLong(list[i]);
+				} else if (Configuration.isParameter(name)) {
+					if (list.length == 1)
+						base = base.with(name, list[0]);
+					else {
+						names.add(name);
+						values.add(list);
+					}
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid value of " + name + " in " + file, e);
+			}
+		}
+
+		return grid(base, names.toArray(new String[names.size()]), values.toArray(new String[values.size()][]),
+				seeds);
+	}
+
+	private static List<Element> children(Element parent) {
+		List<Element> children = new ArrayList<Element>();
+		for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node instanceof Element && node.getNodeName().equals("parameter"))
+				children.add((Element) node);
+		}
+		return children;
+	}
+
+	/**
+	 * Runs every point of the sweep and waits for all of them to finish. A
+	 * failed run, e.g. one whose firm found itself in an inconsistent state,
+	 * does not stop the others; its failure is its result's reason.
+	 *
+	 * @param points
+	 * @return the result of each run, in the order of the points
+	 * @throws IOException
+	 *             if the summary cannot be written
+	 */
+	public List<Result> run(List<Point> points) throws IOException {
+		if (directory != null)
+			directory.mkdirs();
+
+		Result[] results = new Result[points.size()];
+		pool.invoke(new Runs(points, results, 0, points.size()));
+
+		List<Result> sweep = Arrays.asList(results);
+		if (directory != null)
+			writeSummary(sweep, new File(directory, "sweep.csv"));
+		return sweep;
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private final class Runs extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Point> points;
+		private final Result[] results;
+		private final int from;
+		private final int to;
+
+		Runs(List<Point> points, Result[] results, int from, int to) {
+			this.points = points;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				Point point = points.get(from);
+				try {
+					results[from] = run(point);
+				} catch (IOException | RuntimeException e) {
+					results[from] = new Result(point, 0, "failed: " + e);
+				}
+			} else if (to > from) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Runs(points, results, from, middle), new Runs(points, results, middle, to));
+			}
+		}
+	}
+
+	private Result run(Point point) throws IOException {
+		HeadlessEngine engine = new HeadlessEngine(point.getConfiguration(), point.getSeed());
+		Economy economy = engine.getEconomy();
+
+		List<StoppingRule> runRules = new ArrayList<StoppingRule>(rules.size());
+		for (StoppingRule rule : rules)
+			runRules.add(rule.newRule());
+
+		// replaces the file of a previous sweep rather than appending to it
+		StatisticsSink sink = directory != null
+				? new StatisticsSink(new File(directory, "run-" + point.getIndex() + ".stats"), ticks, false)
+				: null;
+		try {
+			String reason = null;
+			try {
+				while (reason == null && engine.getTick() < ticks) {
+					engine.step();
+					if (sink != null)
+						sink.append(engine.getTick(), economy.getStatistics());
+
+					for (int i = 0; i < runRules.size() && reason == null; i++)
+						reason = runRules.get(i).check(economy, engine.getTick());
+				}
+			} catch (RuntimeException e) {
+				// the tick that failed was not run to the end
+				return new Result(point, engine.getTick() - 1, "failed at tick " + engine.getTick() + ": " + e);
+			}
+			return new Result(point, engine.getTick(), reason != null ? reason : COMPLETED);
+		} finally {
+			if (sink != null)
+				sink.close();
+			economy.close();
+		}
+	}
+
+	/**
+	 * Writes one line per run: its position, seed and parameters, the ticks
+	 * it ran and why it stopped.
+	 */
+	static void writeSummary(List<Result> results, File file) throws IOException {
+		PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.println("run,seed,hhnumber,firmsnumber,IRC,IRS,IVA,minbenefit,eitcbenefit,unempbenefit,ticks,reason");
+			for (Result result : results) {
+				Point point = result.getPoint();
+				Configuration c = point.getConfiguration();
+				out.println(point.getIndex() + "," + point.getSeed() + "," + c.getHouseholdsNumber() + ","
+						+ c.getFirmsNumber() + "," + c.getIRC() + "," + c.getIRS() + "," + c.getIVA() + ","
+						+ c.getMinBenefit() + "," + c.getEarnedTaxCredit() + "," + c.getUnemployedBenefit() + ","
+						+ result.getTicks() + ",\"" + result.getReason().replace('"', '\'') + "\"");
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Usage:
+	 * {@code SweepScheduler [batch parameters] [ticks] [threads] [output directory]}
+	 * <br>
+	 * Runs the sweep of a batch parameters file (by default
+	 * {@code batch/batch_params.xml}), stopping the runs whose economy
+	 * collapsed (no employment for {@code -Dsweep.collapse=12} ticks) or
+	 * reached a steady state (GDP and Gini averages over
+	 * {@code -Dsweep.window=240} ticks within {@code -Dsweep.tolerance=0.01},
+	 * not before the tick {@code -Dsweep.warmup=1200}; a window of 0 disables
+	 * this rule).
+	 */
+	public static void main(String[] args) throws IOException {
+		File parameters = new File(args.length > 0 ? args[0] : "batch/batch_params.xml");
+		int ticks = args.length > 1 ? Integer.parseInt(args[1]) : Properties.END_TICK;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		File directory = new File(args.length > 3 ? args[3] : "output");
+
+		int window = Integer.getInteger("sweep.window", 240);
+		List<StoppingRule> rules = new ArrayList<StoppingRule>();
+		rules.add(new StoppingRule.Collapse(Integer.getInteger("sweep.collapse", 12)));
+		if (window > 0)
+			rules.add(new StoppingRule.SteadyState(window,
+					Double.parseDouble(System.getProperty("sweep.tolerance", "0.01")),
+					Integer.getInteger("sweep.warmup", 1200)));
+
+		SweepScheduler scheduler = new SweepScheduler(threads, ticks, directory,
+				rules.toArray(new StoppingRule[rules.size()]));
+		try {
+			for (Result result : scheduler.run(fromBatchParameters(parameters)))
+				System.out.println("run " + result.getPoint().getIndex() + " stopped at tick " + result.getTicks()
+						+ ": " + result.getReason());
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,217 @@
+/**
+ *
+ */
+package environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.atomic.AtomicLong;
+
+import environment.HeadlessEngine.Stage;
+import utilities.Properties;
+
+/**
+ * Records every payment settled by a {@linkplain Bank}, see
+ * {@link Bank#setJournal(TransferJournal)}.<br>
+ * The journal is an append only file of fixed width records, in segments of
+ * {@code capacity} records that are memory mapped as soon as they are needed,
+ * so recording a payment only takes a slot and writes it in place:
+ *
+ * <pre>
+ * header   magic (int), version (short), record size (short), capacity (int),
+ *          records (int), reserved (16 bytes)
+ * records  amount (long, micro-units), tick (int), drawee (int),
+ *          recepient (int), stage (byte), kind (byte), reserved (2 bytes)
+ * </pre>
+ *
+ * All values are little endian. The drawee and the recepient are the
+ * positions of their accounts in the ledger, or -1 for the other bank of a
+ * remittance (see {@link Kind#REMITTANCE}); the stage is the ordinal of the
+ * {@linkplain Stage}, or -1 outside the cycle; the kind is the ordinal of the
+ * {@linkplain Kind} plus one, so that a slot never written reads as empty.
+ * The number of records of each segment is written when the journal is
+ * closed. The regions of a sharded run take their slots concurrently, so the
+ * records of a stage are not in the order of their payments across regions.
+ * <br>
+ * The journal is read by a {@linkplain JournalReader}.
+ *
+ */
+public class TransferJournal {
+
+	/**
+	 * What a payment is made for.
+	 */
+	public enum Kind {
+		WAGE, TAX, VAT, BENEFIT, PURCHASE,
+		/**
+		 * The taxes collected by the government of a region, moved to the
+		 * government of the economy.
+		 */
+		COLLECTION,
+		/**
+		 * Funds moved between the banks of two partitions of a distributed run.
+		 */
+		REMITTANCE
+	}
+
+	static final int MAGIC = 0x544A4D41; // "AMJT"
+	static final short VERSION = 1;
+	static final int HEADER = 32;
+	static final int RECORDS = 12;
+	static final int RECORD = 24;
+
+	static final Kind[] KINDS = Kind.values();
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int capacity;
+	private final AtomicLong next = new AtomicLong();
+
+	// The segments mapped so far, replaced by a longer copy when one is added
+	private volatile MappedByteBuffer[] segments;
+
+	private volatile int tick = 0;
+	private volatile byte stage = -1;
+
+	/**
+	 * Opens a journal on the given {@code file}, replacing its contents.
+	 *
+	 * @param file
+	 * @throws IOException
+	 *             if the file cannot be mapped
+	 */
+	public TransferJournal(File file) throws IOException {
+		this(file, Properties.JOURNAL_SEGMENT);
+	}
+
+	/**
+	 * @param file
+	 * @param capacity
+	 *            the records of each segment
+	 * @throws IOException
+	 *             if the file cannot be mapped
+	 */
+	public TransferJournal(File file, int capacity) throws IOException {
+		this.capacity = Math.max(capacity, 1);
+		this.file = new RandomAccessFile(file, "rw");
+		channel = this.file.getChannel();
+		try {
+			this.file.setLength(0);
+			segments = new MappedByteBuffer[] { map(0) };
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Stamps the payments recorded from now on with the given {@code tick}
+	 * and {@code stage}.
+	 *
+	 * @param tick
+	 * @param stage
+	 *            the stage being run, or {@code null} outside the cycle
+	 */
+	public void mark(int tick, Stage stage) {
+		this.tick = tick;
+		this.stage = (byte) (stage != null ? stage.ordinal() : -1);
+	}
+
+	/**
+	 * Records a payment. May be called by several threads at a time.
+	 *
+	 * @param kind
+	 * @param drawee
+	 *            the position of the drawee's account in the ledger, or -1
+	 * @param recepient
+	 *            the position of the recepient's account in the ledger, or -1
+	 * @param micros
+	 *            the amount paid, in micro-units
+	 */
+	public void record(Kind kind, int drawee, int recepient, long micros) {
+		long slot = next.getAndIncrement();
+		int index = (int) (slot / capacity);
+		MappedByteBuffer[] mapped = segments;
+		MappedByteBuffer segment = index < mapped.length ? mapped[index] : segment(index);
+
+		int at = HEADER + (int) (slot % capacity) * RECORD;
+		segment.putLong(at, micros);
+		segment.putInt(at + 8, tick);
+		segment.putInt(at + 12, drawee);
+		segment.putInt(at + 16, recepient);
+		segment.put(at + 20, stage);
+		segment.put(at + 21, (byte) (kind.ordinal() + 1));
+	}
+
+	/**
+	 * @return the number of payments recorded
+	 */
+	public long getRecords() {
+		return next.get();
+	}
+
+	/**
+	 * Writes the number of records of each segment, flushes the journal to
+	 * the disk and closes the file. No payment may be recorded any more.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			MappedByteBuffer[] mapped = segments;
+			long records = next.get();
+			for (int i = 0; i < mapped.length; i++) {
+				long count = Math.max(0, Math.min(capacity, records - (long) i * capacity));
+				mapped[i].putInt(RECORDS, (int) count);
+				mapped[i].force();
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Maps every segment up to the {@code index}th one.
+	 */
+	private synchronized MappedByteBuffer segment(int index) {
+		MappedByteBuffer[] mapped = segments;
+		if (index < mapped.length)
+			return mapped[index];
+
+		MappedByteBuffer[] longer = new MappedByteBuffer[index + 1];
+		System.arraycopy(mapped, 0, longer, 0, mapped.length);
+		try {
+			for (int i = mapped.length; i <= index; i++)
+				longer[i] = map(i);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot map the segment " + index + " of the journal", e);
+		}
+		segments = longer;
+		return longer[index];
+	}
+
+	private MappedByteBuffer map(int index) throws IOException {
+		int size = segmentSize(capacity);
+		MappedByteBuffer segment = channel.map(MapMode.READ_WRITE, (long) index * size, size);
+		segment.order(ByteOrder.LITTLE_ENDIAN);
+		segment.putInt(0, MAGIC);
+		segment.putShort(4, VERSION);
+		segment.putShort(6, (short) RECORD);
+		segment.putInt(8, capacity);
+		segment.putInt(RECORDS, 0);
+		return segment;
+	}
+
+	/**
+	 * @return the bytes taken by a segment of {@code capacity} records
+	 */
+	static int segmentSize(int capacity) {
+		return HEADER + capacity * RECORD;
+	}
+
+}
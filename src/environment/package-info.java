@@ -1,11 +1,11 @@
-/**
- * This package defines the entire environment of the simulation. <br>
- * The simulation's context is defined by a {@linkplain SimBuilder} class in which all agents are created and inserted in the context. <br>
- * The {@linkplain GoodsMarket} and {@linkplain LaborMarket} classes are entities in the environment <b>used</b> by the agents. <br>
- * The {@linkplain StatisticsManager} gathers data and performs operations to provide a set of macro-economic outcomes.
- */
-/**
- * @author Diogo L. Costa
- *
- */
+/**
+ * This package defines the entire environment of the simulation. <br>
+ * The simulation's context is defined by a {@linkplain SimBuilder} class in which all agents are created and inserted in the context. <br>
+ * The {@linkplain GoodsMarket} and {@linkplain LaborMarket} classes are entities in the environment <b>used</b> by the agents. <br>
+ * The {@linkplain StatisticsManager} gathers data and performs operations to provide a set of macro-economic outcomes.
+ */
+/**
+ * @author Diogo L. Costa
+ *
+ */
 package environment;
\ No newline at end of file
@@ -1,61 +1,61 @@
-/**
- * 
- */
-package exceptions;
-
-/**
- * @author Diogo L. Costa
- *
- */
-public class InvalidResourcesException extends Exception {
-
-	/**
-	 * 
-	 */
-	private static final long serialVersionUID = -3005186841993655748L;
-
-	/**
-	 * 
-	 */
-	public InvalidResourcesException() {
-		// TODO Auto-generated constructor stub
-	}
-
-	/**
-	 * @param arg0
-	 */
-	public InvalidResourcesException(String arg0) {
-		super(arg0);
-		// TODO Auto-generated constructor stub
-	}
-
-	/**
-	 * @param arg0
-	 */
-	public InvalidResourcesException(Throwable arg0) {
-		super(arg0);
-		// TODO Auto-generated constructor stub
-	}
-
-	/**
-	 * @param arg0
-	 * @param arg1
-	 */
-	public InvalidResourcesException(String arg0, Throwable arg1) {
-		super(arg0, arg1);
-		// TODO Auto-generated constructor stub
-	}
-
-	/**
-	 * @param arg0
-	 * @param arg1
-	 * @param arg2
-	 * @param arg3
-	 */
-	public InvalidResourcesException(String arg0, Throwable arg1, boolean arg2,
-			boolean arg3) {
-		super(arg0, arg1, arg2, arg3);
-		// TODO Auto-generated constructor stub
-	}
-
-}
+/**
+ * 
+ */
+package exceptions;
+
+/**
+ * @author Diogo L. Costa
+ *
+ */
+public class InvalidResourcesException extends Exception {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -3005186841993655748L;
+
+	/**
+	 * 
+	 */
+	public InvalidResourcesException() {
+		// TODO Auto-generated constructor stub
+	}
+
+	/**
+	 * @param arg0
+	 */
+	public InvalidResourcesException(String arg0) {
+		super(arg0);
+		// TODO Auto-generated constructor stub
+	}
+
+	/**
+	 * @param arg0
+	 */
+	public InvalidResourcesException(Throwable arg0) {
+		super(arg0);
+		// TODO Auto-generated constructor stub
+	}
+
+	/**
+	 * @param arg0
+	 * @param arg1
+	 */
+	public InvalidResourcesException(String arg0, Throwable arg1) {
+		super(arg0, arg1);
+		// TODO Auto-generated constructor stub
+	}
+
+	/**
+	 * @param arg0
+	 * @param arg1
+	 * @param arg2
+	 * @param arg3
+	 */
+	public InvalidResourcesException(String arg0, Throwable arg1, boolean arg2,
+			boolean arg3) {
+		super(arg0, arg1, arg2, arg3);
+		// TODO Auto-generated constructor stub
+	}
+
+}
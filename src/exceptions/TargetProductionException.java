@@ -1,61 +1,61 @@
-/**
- * 
- */
-package exceptions;
-
-/**
- * @author Diogo L. Costa
- *
- */
-public class TargetProductionException extends Exception {
-
-	/**
-	 * 
-	 */
-	private static final long serialVersionUID = 2488803502146327168L;
-
-	/**
-	 * 
-	 */
-	public TargetProductionException() {
-		// TODO Auto-generated constructor stub
-	}
-
-	/**
-	 * @param message
-	 */
-	public TargetProductionException(String message) {
-		super(message);
-		// TODO Auto-generated constructor stub
-	}
-
-	/**
-	 * @param cause
-	 */
-	public TargetProductionException(Throwable cause) {
-		super(cause);
-		// TODO Auto-generated constructor stub
-	}
-
-	/**
-	 * @param message
-	 * @param cause
-	 */
-	public TargetProductionException(String message, Throwable cause) {
-		super(message, cause);
-		// TODO Auto-generated constructor stub
-	}
-
-	/**
-	 * @param message
-	 * @param cause
-	 * @param enableSuppression
-	 * @param writableStackTrace
-	 */
-	public TargetProductionException(String message, Throwable cause,
-			boolean enableSuppression, boolean writableStackTrace) {
-		super(message, cause, enableSuppression, writableStackTrace);
-		// TODO Auto-generated constructor stub
-	}
-
-}
+/**
+ * 
+ */
+package exceptions;
+
+/**
+ * @author Diogo L. Costa
+ *
+ */
+public class TargetProductionException extends Exception {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 2488803502146327168L;
+
+	/**
+	 * 
+	 */
+	public TargetProductionException() {
+		// TODO Auto-generated constructor stub
+	}
+
+	/**
+	 * @param message
+	 */
+	public TargetProductionException(String message) {
+		super(message);
+		// TODO Auto-generated constructor stub
+	}
+
+	/**
+	 * @param cause
+	 */
+	public TargetProductionException(Throwable cause) {
+		super(cause);
+		// TODO Auto-generated constructor stub
+	}
+
+	/**
+	 * @param message
+	 * @param cause
+	 */
+	public TargetProductionException(String message, Throwable cause) {
+		super(message, cause);
+		// TODO Auto-generated constructor stub
+	}
+
+	/**
+	 * @param message
+	 * @param cause
+	 * @param enableSuppression
+	 * @param writableStackTrace
+	 */
+	public TargetProductionException(String message, Throwable cause,
+			boolean enableSuppression, boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
+		// TODO Auto-generated constructor stub
+	}
+
+}
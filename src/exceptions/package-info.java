@@ -1,8 +1,8 @@
-/**
- * This package groups all exceptions considered important in the play out of the simulation.
- */
-/**
- * @author Diogo L. Costa
- *
- */
+/**
+ * This package groups all exceptions considered important in the play out of the simulation.
+ */
+/**
+ * @author Diogo L. Costa
+ *
+ */
 package exceptions;
\ No newline at end of file
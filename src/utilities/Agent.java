@@ -1,12 +1,19 @@
-package utilities;
-
-
-/**
- * All agents in the simulation context <b>must</b> implement this interface.
- * 
- * @author Diogo L. Costa
- *
- */
-public interface Agent {
-
-}
+package utilities;
+
+import environment.Bank.BankAccount;
+
+
+/**
+ * All agents in the simulation context <b>must</b> implement this interface.
+ * 
+ * @author Diogo L. Costa
+ *
+ */
+public interface Agent {
+
+	/**
+	 * @return the agent's account in the {@linkplain environment.Bank}
+	 */
+	BankAccount getAccount();
+
+}
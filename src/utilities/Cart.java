@@ -0,0 +1,118 @@
+/**
+ *
+ */
+package utilities;
+
+import agents.Firm;
+
+/**
+ * The goods a buyer picked in the {@linkplain environment.GoodsMarket}.<br>
+ * Each line refers to a number of goods of the same price tier (see
+ * {@link Inventory}) of a given {@linkplain Firm}. The arrays are reused from
+ * visit to visit so that shopping does not allocate one object per good, and
+ * so are the buffers the market needs to fill the cart, which lets several
+ * buyers shop at the same time.
+ *
+ */
+public class Cart {
+
+	private Firm[] firms = new Firm[8];
+	private int[] tiers = new int[8];
+	private float[] prices = new float[8];
+	private int[] quantities = new int[8];
+	private int lines = 0;
+
+	// Buffers used by the market while filling the cart
+	private boolean[] sampled = new boolean[0];
+	private int[] sample = new int[0];
+	private Firm[] visible = new Firm[0];
+
+	public void add(Firm firm, int tier, float price, int quantity) {
+		if (lines == firms.length)
+			grow();
+		firms[lines] = firm;
+		tiers[lines] = tier;
+		prices[lines] = price;
+		quantities[lines] = quantity;
+		lines++;
+	}
+
+	public void clear() {
+		for (int i = 0; i < lines; i++)
+			firms[i] = null;
+		lines = 0;
+	}
+
+	public final int getLines() {
+		return lines;
+	}
+
+	public final Firm getFirm(int line) {
+		return firms[line];
+	}
+
+	public final int getTier(int line) {
+		return tiers[line];
+	}
+
+	public final float getPrice(int line) {
+		return prices[line];
+	}
+
+	public final int getQuantity(int line) {
+		return quantities[line];
+	}
+
+	public final void setQuantity(int line, int quantity) {
+		quantities[line] = quantity;
+	}
+
+	/**
+	 * @return the total number of goods in the cart.
+	 */
+	public final int size() {
+		int size = 0;
+		for (int i = 0; i < lines; i++)
+			size += quantities[i];
+		return size;
+	}
+
+	/**
+	 * @return a buffer of at least {@code n} flags, all {@code false}; they
+	 *         must be reset by the caller after use.
+	 */
+	public final boolean[] getSampledBuffer(int n) {
+		if (sampled.length < n)
+			sampled = new boolean[n];
+		return sampled;
+	}
+
+	public final int[] getSampleBuffer(int k) {
+		if (sample.length < k)
+			sample = new int[k];
+		return sample;
+	}
+
+	public final Firm[] getVisibleBuffer(int k) {
+		if (visible.length < k)
+			visible = new Firm[k];
+		return visible;
+	}
+
+	private void grow() {
+		int length = firms.length * 2;
+		Firm[] newFirms = new Firm[length];
+		int[] newTiers = new int[length];
+		float[] newPrices = new float[length];
+		int[] newQuantities = new int[length];
+		System.arraycopy(firms, 0, newFirms, 0, lines);
+		System.arraycopy(tiers, 0, newTiers, 0, lines);
+		System.arraycopy(prices, 0, newPrices, 0, lines);
+		System.arraycopy(quantities, 0, newQuantities, 0, lines);
+		firms = newFirms;
+		tiers = newTiers;
+		prices = newPrices;
+		quantities = newQuantities;
+	}
+
+}
@@ -0,0 +1,362 @@
+/**
+ *
+ */
+package utilities;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.parameter.Parameters;
+
+/**
+ * The parameters of one run of the simulation, i.e. those set in
+ * {@code parameters.xml}: the number of agents, the tax rates and the
+ * benefits; and the number of regions the run is sharded in (see
+ * {@linkplain environment.Region}).<br>
+ * A configuration is immutable and given to the run's
+ * {@linkplain environment.Economy}, which hands it to its agents and markets,
+ * so that runs with different parameters can share a JVM. The constants of the
+ * model itself stay in {@linkplain Properties}.<br>
+ * <br>
+ * A configuration is read from the Repast parameters (or the system
+ * properties, see {@link #fromParameters()}), from a parameters file (see
+ * {@link #fromFile(File)}), or derived from another one, e.g.
+ * {@code Configuration.defaults().withIRS(0.35f)}.
+ *
+ */
+public final class Configuration {
+
+	// Fraction of the applicants and offers exchanged by the regions
+	private static final float VISIBILITY = 0.1f;
+
+	private static final Configuration DEFAULTS = new Configuration(500, 50, 0.25f, 0.3f, 0.2f, 1, 1, 1, 1,
+			VISIBILITY);
+
+	private final int householdsNumber;
+	private final int firmsNumber;
+	private final float IRC;
+	private final float IRS;
+	private final float IVA;
+	private final float minBenefit;
+	private final float earnedTaxCredit;
+	private final float unemployedBenefit;
+	private final int regions;
+	private final float visibility;
+
+	/**
+	 * Creates the configuration of a run that is not sharded.
+	 * 
+	 * @param householdsNumber
+	 *            {@code hhnumber}
+	 * @param firmsNumber
+	 *            {@code firmsnumber}
+	 * @param IRC
+	 *            the tax rate on the firms' profits
+	 * @param IRS
+	 *            the tax rate on the wages
+	 * @param IVA
+	 *            the tax rate on the goods' prices
+	 * @param minBenefit
+	 *            {@code minbenefit}, the minimum benefit in minimum wages
+	 * @param earnedTaxCredit
+	 *            {@code eitcbenefit}, the factor of the earned income tax
+	 *            credit
+	 * @param unemployedBenefit
+	 *            {@code unempbenefit}, the unemployment benefit as a factor of
+	 *            the last wage
+	 */
+	public Configuration(int householdsNumber, int firmsNumber, float IRC, float IRS, float IVA, float minBenefit,
+			float earnedTaxCredit, float unemployedBenefit) {
+		this(householdsNumber, firmsNumber, IRC, IRS, IVA, minBenefit, earnedTaxCredit, unemployedBenefit, 1,
+				VISIBILITY);
+	}
+
+	/**
+	 * @param regions
+	 *            the number of regions the run is sharded in, 1 for none
+	 * @param visibility
+	 *            the fraction of each region's applicants and offers made
+	 *            visible to the other regions at every tick
+	 * @see #Configuration(int, int, float, float, float, float, float, float)
+	 */
+	public Configuration(int householdsNumber, int firmsNumber, float IRC, float IRS, float IVA, float minBenefit,
+			float earnedTaxCredit, float unemployedBenefit, int regions, float visibility) {
+		if (regions < 1)
+			throw new IllegalArgumentException("Invalid number of regions: " + regions);
+		this.householdsNumber = householdsNumber;
+		this.firmsNumber = firmsNumber;
+		this.IRC = IRC;
+		this.IRS = IRS;
+		this.IVA = IVA;
+		this.minBenefit = minBenefit;
+		this.earnedTaxCredit = earnedTaxCredit;
+		this.unemployedBenefit = unemployedBenefit;
+		this.regions = regions;
+		this.visibility = visibility;
+	}
+
+	/**
+	 * @return the defaults of {@code parameters.xml}
+	 */
+	public static Configuration defaults() {
+		return DEFAULTS;
+	}
+
+	/**
+	 * Reads the parameters of the current Repast run or, when the model runs
+	 * without the Repast runtime (see {@linkplain environment.HeadlessEngine}),
+	 * the system properties of the same names (e.g. {@code -Dhhnumber=500},
+	 * {@code -Dregions=4}), falling back to the defaults.
+	 */
+	public static Configuration fromParameters() {
+		RunEnvironment environment = RunEnvironment.getInstance();
+		Parameters params = environment != null ? environment.getParameters() : null;
+		if (params != null)
+			return fromParameters(params);
+
+		return new Configuration(Integer.getInteger("hhnumber", DEFAULTS.householdsNumber),
+				Integer.getInteger("firmsnumber", DEFAULTS.firmsNumber),
+				floatProperty("IRC", DEFAULTS.IRC), floatProperty("IRS", DEFAULTS.IRS),
+				floatProperty("IVA", DEFAULTS.IVA), floatProperty("minbenefit", DEFAULTS.minBenefit),
+				floatProperty("eitcbenefit", DEFAULTS.earnedTaxCredit),
+				floatProperty("unempbenefit", DEFAULTS.unemployedBenefit),
+				Integer.getInteger("regions", DEFAULTS.regions), floatProperty("visibility", DEFAULTS.visibility));
+	}
+
+	/**
+	 * @param params
+	 *            the parameters of a Repast run
+	 */
+	public static Configuration fromParameters(Parameters params) {
+		return new Configuration((Integer) params.getValue("hhnumber"), (Integer) params.getValue("firmsnumber"),
+				(Float) params.getValue("IRC"), (Float) params.getValue("IRS"), (Float) params.getValue("IVA"),
+				(Float) params.getValue("minbenefit"), (Float) params.getValue("eitcbenefit"),
+				(Float) params.getValue("unempbenefit"));
+	}
+
+	/**
+	 * Reads the default values of a Repast parameters file, such as
+	 * {@code AMoSI.rs/parameters.xml}. The parameters missing from the file
+	 * take the defaults.
+	 *
+	 * @param file
+	 * @throws IOException
+	 *             if the file cannot be read or parsed
+	 */
+	public static Configuration fromFile(File file) throws IOException {
+		Configuration configuration = DEFAULTS;
+
+		NodeList parameters;
+		try {
+			parameters = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file)
+					.getElementsByTagName("parameter");
+		} catch (ParserConfigurationException | SAXException e) {
+			throw new IOException("Cannot parse " + file, e);
+		}
+
+		for (int i = 0; i < parameters.getLength(); i++) {
+			Element parameter = (Element) parameters.item(i);
+			String name = parameter.getAttribute("name");
+			String value = parameter.getAttribute("defaultValue").trim();
+
+			try {
+				if (isParameter(name))
+					configuration = configuration.with(name, value);
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid value of " + name + " in " + file + ": " + value, e);
+			}
+		}
+
+		return configuration;
+	}
+
+	/**
+	 * @return whether {@code name} is the name of one of the parameters held
+	 *         by a configuration: those in {@code parameters.xml},
+	 *         {@code regions} and {@code visibility}
+	 */
+	public static boolean isParameter(String name) {
+		return name.equals("hhnumber") || name.equals("firmsnumber") || name.equals("IRC") || name.equals("IRS")
+				|| name.equals("IVA") || name.equals("minbenefit") || name.equals("eitcbenefit")
+				|| name.equals("unempbenefit") || name.equals("regions") || name.equals("visibility");
+	}
+
+	/**
+	 * @param name
+	 *            the name of the parameter, see {@link #isParameter(String)}
+	 * @param value
+	 *            its new value, as text
+	 * @return a copy of this configuration with the parameter set to
+	 *         {@code value}
+	 * @throws IllegalArgumentException
+	 *             if there is no such parameter
+	 * @throws NumberFormatException
+	 *             if the value is not a number of the parameter's type
+	 */
+	public Configuration with(String name, String value) {
+		if (name.equals("hhnumber"))
+			return withHouseholdsNumber(Integer.parseInt(value));
+		else if (name.equals("firmsnumber"))
+			return withFirmsNumber(Integer.parseInt(value));
+		else if (name.equals("IRC"))
+			return withIRC(Float.parseFloat(value));
+		else if (name.equals("IRS"))
+			return withIRS(Float.parseFloat(value));
+		else if (name.equals("IVA"))
+			return withIVA(Float.parseFloat(value));
+		else if (name.equals("minbenefit"))
+			return withMinBenefit(Float.parseFloat(value));
+		else if (name.equals("eitcbenefit"))
+			return withEarnedTaxCredit(Float.parseFloat(value));
+		else if (name.equals("unempbenefit"))
+			return withUnemployedBenefit(Float.parseFloat(value));
+		else if (name.equals("regions"))
+			return withRegions(Integer.parseInt(value));
+		else if (name.equals("visibility"))
+			return withVisibility(Float.parseFloat(value));
+		else
+			throw new IllegalArgumentException("Unknown parameter: " + name);
+	}
+
+	/**
+	 * Reads a configuration written by {@link #write(DataOutput)}, e.g. by the
+	 * coordinator of a distributed run (see
+	 * {@linkplain environment.Coordinator}).
+	 */
+	public static Configuration read(DataInput in) throws IOException {
+		return new Configuration(in.readInt(), in.readInt(), in.readFloat(), in.readFloat(), in.readFloat(),
+				in.readFloat(), in.readFloat(), in.readFloat(), in.readInt(), in.readFloat());
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(householdsNumber);
+		out.writeInt(firmsNumber);
+		out.writeFloat(IRC);
+		out.writeFloat(IRS);
+		out.writeFloat(IVA);
+		out.writeFloat(minBenefit);
+		out.writeFloat(earnedTaxCredit);
+		out.writeFloat(unemployedBenefit);
+		out.writeInt(regions);
+		out.writeFloat(visibility);
+	}
+
+	private static float floatProperty(String name, float defaultValue) {
+		return Float.parseFloat(System.getProperty(name, String.valueOf(defaultValue)));
+	}
+
+	public Configuration withHouseholdsNumber(int householdsNumber) {
+		return new Configuration(householdsNumber, firmsNumber, IRC, IRS, IVA, minBenefit, earnedTaxCredit,
+				unemployedBenefit, regions, visibility);
+	}
+
+	public Configuration withFirmsNumber(int firmsNumber) {
+		return new Configuration(householdsNumber, firmsNumber, IRC, IRS, IVA, minBenefit, earnedTaxCredit,
+				unemployedBenefit, regions, visibility);
+	}
+
+	public Configuration withIRC(float IRC) {
+		return new Configuration(householdsNumber, firmsNumber, IRC, IRS, IVA, minBenefit, earnedTaxCredit,
+				unemployedBenefit, regions, visibility);
+	}
+
+	public Configuration withIRS(float IRS) {
+		return new Configuration(householdsNumber, firmsNumber, IRC, IRS, IVA, minBenefit, earnedTaxCredit,
+				unemployedBenefit, regions, visibility);
+	}
+
+	public Configuration withIVA(float IVA) {
+		return new Configuration(householdsNumber, firmsNumber, IRC, IRS, IVA, minBenefit, earnedTaxCredit,
+				unemployedBenefit, regions, visibility);
+	}
+
+	public Configuration withMinBenefit(float minBenefit) {
+		return new Configuration(householdsNumber, firmsNumber, IRC, IRS, IVA, minBenefit, earnedTaxCredit,
+				unemployedBenefit, regions, visibility);
+	}
+
+	public Configuration withEarnedTaxCredit(float earnedTaxCredit) {
+		return new Configuration(householdsNumber, firmsNumber, IRC, IRS, IVA, minBenefit, earnedTaxCredit,
+				unemployedBenefit, regions, visibility);
+	}
+
+	public Configuration withUnemployedBenefit(float unemployedBenefit) {
+		return new Configuration(householdsNumber, firmsNumber, IRC, IRS, IVA, minBenefit, earnedTaxCredit,
+				unemployedBenefit, regions, visibility);
+	}
+
+	public Configuration withRegions(int regions) {
+		return new Configuration(householdsNumber, firmsNumber, IRC, IRS, IVA, minBenefit, earnedTaxCredit,
+				unemployedBenefit, regions, visibility);
+	}
+
+	public Configuration withVisibility(float visibility) {
+		return new Configuration(householdsNumber, firmsNumber, IRC, IRS, IVA, minBenefit, earnedTaxCredit,
+				unemployedBenefit, regions, visibility);
+	}
+
+	public int getHouseholdsNumber() {
+		return householdsNumber;
+	}
+
+	public int getFirmsNumber() {
+		return firmsNumber;
+	}
+
+	public float getIRC() {
+		return IRC;
+	}
+
+	public float getIRS() {
+		return IRS;
+	}
+
+	public float getIVA() {
+		return IVA;
+	}
+
+	public float getMinBenefit() {
+		return minBenefit;
+	}
+
+	public float getEarnedTaxCredit() {
+		return earnedTaxCredit;
+	}
+
+	public float getUnemployedBenefit() {
+		return unemployedBenefit;
+	}
+
+	/**
+	 * @return the number of regions, 1 if the run is not sharded
+	 */
+	public int getRegions() {
+		return regions;
+	}
+
+	/**
+	 * @return the fraction of each region's applicants and offers moved to
+	 *         the other regions at every tick
+	 */
+	public float getVisibility() {
+		return visibility;
+	}
+
+	@Override
+	public String toString() {
+		return "hhnumber=" + householdsNumber + ", firmsnumber=" + firmsNumber + ", IRC=" + IRC + ", IRS=" + IRS
+				+ ", IVA=" + IVA + ", minbenefit=" + minBenefit + ", eitcbenefit=" + earnedTaxCredit
+				+ ", unempbenefit=" + unemployedBenefit + ", regions=" + regions + ", visibility=" + visibility;
+	}
+
+}
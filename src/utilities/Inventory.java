@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package utilities;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The stock of a {@linkplain agents.Firm} Agent.<br>
+ * Instead of holding one object per unit, the goods are grouped in
+ * <i>price tiers</i>: each tier is a (price, quantity) pair kept in primitive
+ * arrays. The order of the tiers is the order in which the goods are offered in
+ * the {@linkplain environment.GoodsMarket}.<br>
+ * <br>
+ * Selling goods only decrements the quantity of a tier, so that the tier
+ * indexes handed to buyers remain valid until the stock is reorganized by
+ * {@link #sortAndTruncate(int)}.
+ *
+ */
+public class Inventory {
+
+	private float[] prices = new float[8];
+	private int[] quantities = new int[8];
+	private int tiers = 0;
+	private int size = 0;
+
+	/**
+	 * Adds {@code quantity} goods at the given {@code price} to the end of the
+	 * stock.
+	 *
+	 * @param price
+	 * @param quantity
+	 */
+	public void add(float price, int quantity) {
+		if (quantity <= 0)
+			return;
+
+		if (tiers > 0 && prices[tiers - 1] == price) {
+			quantities[tiers - 1] += quantity;
+		} else {
+			if (tiers == prices.length)
+				grow();
+			prices[tiers] = price;
+			quantities[tiers] = quantity;
+			tiers++;
+		}
+		size += quantity;
+	}
+
+	/**
+	 * Removes {@code quantity} goods from the given {@code tier}, e.g. after a
+	 * sale.
+	 *
+	 * @param tier
+	 * @param quantity
+	 */
+	public void remove(int tier, int quantity) {
+		quantities[tier] -= quantity;
+		size -= quantity;
+	}
+
+	/**
+	 * Sorts the tiers by ascending price, merges the tiers with the same price
+	 * and keeps only the {@code capacity} cheapest goods.
+	 *
+	 * @param capacity
+	 *            the maximum number of goods to keep
+	 */
+	public void sortAndTruncate(int capacity) {
+
+		// Stable insertion sort: the number of tiers is always small
+		int count = 0;
+		for (int i = 0; i < tiers; i++) {
+			if (quantities[i] == 0)
+				continue;
+
+			float price = prices[i];
+			int quantity = quantities[i];
+			int j = count - 1;
+			while (j >= 0 && prices[j] > price) {
+				prices[j + 1] = prices[j];
+				quantities[j + 1] = quantities[j];
+				j--;
+			}
+			if (j >= 0 && prices[j] == price) {
+				// same price as an existing tier: merge and close the gap
+				quantities[j] += quantity;
+				for (int k = j + 1; k < count; k++) {
+					prices[k] = prices[k + 1];
+					quantities[k] = quantities[k + 1];
+				}
+			} else {
+				prices[j + 1] = price;
+				quantities[j + 1] = quantity;
+				count++;
+			}
+		}
+
+		size = 0;
+		tiers = 0;
+		for (int i = 0; i < count && size < capacity; i++) {
+			quantities[i] = Math.min(quantities[i], capacity - size);
+			size += quantities[i];
+			tiers++;
+		}
+	}
+
+	/**
+	 * Sets the price of the given {@code tier}.
+	 *
+	 * @param tier
+	 * @param price
+	 */
+	public void setPrice(int tier, float price) {
+		prices[tier] = price;
+	}
+
+	public final float getPrice(int tier) {
+		return prices[tier];
+	}
+
+	public final int getQuantity(int tier) {
+		return quantities[tier];
+	}
+
+	/**
+	 * @return the number of tiers, including those already sold out.
+	 */
+	public final int getTiers() {
+		return tiers;
+	}
+
+	/**
+	 * @return the total number of goods in stock.
+	 */
+	public final int size() {
+		return size;
+	}
+
+	public final boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Writes every tier as it is, sold out ones included.
+	 */
+	public void writeState(DataOutput out) throws IOException {
+		out.writeInt(tiers);
+		for (int i = 0; i < tiers; i++) {
+			out.writeFloat(prices[i]);
+			out.writeInt(quantities[i]);
+		}
+	}
+
+	public void readState(DataInput in) throws IOException {
+		tiers = 0;
+		size = 0;
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			if (tiers == prices.length)
+				grow();
+			prices[i] = in.readFloat();
+			quantities[i] = in.readInt();
+			size += quantities[i];
+			tiers++;
+		}
+	}
+
+	private void grow() {
+		float[] newPrices = new float[prices.length * 2];
+		int[] newQuantities = new int[quantities.length * 2];
+		System.arraycopy(prices, 0, newPrices, 0, tiers);
+		System.arraycopy(quantities, 0, newQuantities, 0, tiers);
+		prices = newPrices;
+		quantities = newQuantities;
+	}
+
+}
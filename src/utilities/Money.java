@@ -0,0 +1,46 @@
+/**
+ *
+ */
+package utilities;
+
+/**
+ * Fixed-point amounts of money.<br>
+ * The ledger of the {@linkplain environment.Bank} and the money accumulators
+ * of the model (taxes collected, wages paid, goods sold, the totals of the
+ * {@linkplain environment.StatisticsManager}) hold amounts as a {@code long}
+ * number of micro-units. Adding them is exact, so a total is the same whatever
+ * the order of its terms, e.g. when it is computed by several threads. The
+ * quantities of the model itself (prices, wages, rates) stay {@code float} and
+ * are converted once, when they are paid.
+ *
+ */
+public final class Money {
+
+	/**
+	 * The number of micro-units in a unit of money
+	 */
+	public static final long UNIT = 1000000L;
+
+	// Cannot extend nor create an instance of this class.
+	private Money() {
+	}
+
+	/**
+	 * @param amount
+	 *            an amount of money
+	 * @return the amount rounded to the nearest micro-unit
+	 */
+	public static long of(float amount) {
+		return Math.round(amount * (double) UNIT);
+	}
+
+	/**
+	 * @param micros
+	 *            an amount in micro-units
+	 * @return the amount in units, rounded to a float
+	 */
+	public static float toFloat(long micros) {
+		return (float) ((double) micros / UNIT);
+	}
+
+}
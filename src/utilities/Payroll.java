@@ -0,0 +1,207 @@
+/**
+ *
+ */
+package utilities;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The {@linkplain JobContract}s of a {@linkplain agents.Firm} Agent, kept
+ * ordered by pay check.<br>
+ * The contracts are stored by ascending pay check. A new contract goes before
+ * those with the same pay check, and {@link #update()} keeps the order of equal
+ * pay checks; among equals, the contracts are thus ordered by the pay check
+ * they had before their last change, then from the most recent to the oldest.
+ * The highest paid employee is always the last one, so laying off the
+ * {@code k} highest paid employees costs {@code O(k)}.<br>
+ * <br>
+ * Firms used to keep their contracts in a list, in hiring order, sorted by
+ * descending pay check (stably) on every layoff and cost prediction; among
+ * equal pay checks, the employees hired since the last sort came last. The
+ * payroll does not keep that order: e.g. after the prosperity raise gives
+ * every employee the same pay check, the employees hired since the last sort
+ * are laid off by the pay check they had before the raise, not after the
+ * others. Which of several equally paid employees is laid off may thus differ
+ * from a run with the list, and so may the last bits of the firm's average
+ * wage, a float sum of the pay checks in the order of {@link #iterator()}
+ * rather than of the list.<br>
+ * <br>
+ * The payroll keeps the total of the pay checks and the prefix sums of the
+ * pay checks in that order, so that the cost of the payroll, with or without
+ * its highest paid employees, is read without visiting the contracts. The
+ * prefix sums are only rebuilt, from the first changed position, when they are
+ * read after a hire.<br>
+ * <br>
+ * A contract's pay check must not be changed while it is in the payroll
+ * without calling {@link #update()} afterwards.
+ *
+ */
+public class Payroll implements Iterable<JobContract> {
+
+	private static final Comparator<JobContract> BY_PAY_CHECK = new Comparator<JobContract>() {
+		@Override
+		public int compare(JobContract o1, JobContract o2) {
+			return Float.compare(o1.getPayCheck(), o2.getPayCheck());
+		}
+	};
+
+	private JobContract[] contracts = new JobContract[8];
+	// costs[i] is the sum of the pay checks of contracts[0..i-1]
+	private double[] costs = new double[9];
+	// costs[0..valid] are up to date
+	private int valid = 0;
+	private int size = 0;
+	private double total = 0;
+
+	/**
+	 * Adds a new contract, after the older ones with the same pay check.
+	 *
+	 * @param contract
+	 */
+	public void add(JobContract contract) {
+		if (size == contracts.length) {
+			contracts = Arrays.copyOf(contracts, size * 2);
+			costs = Arrays.copyOf(costs, size * 2 + 1);
+		}
+
+		// first position paid at least as much as the new contract
+		float payCheck = contract.getPayCheck();
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (contracts[middle].getPayCheck() < payCheck)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		System.arraycopy(contracts, low, contracts, low + 1, size - low);
+		contracts[low] = contract;
+		size++;
+		total += payCheck;
+		valid = Math.min(valid, low);
+	}
+
+	/**
+	 * Removes the given contract, if in the payroll.
+	 *
+	 * @param contract
+	 * @return {@code true} if the contract was removed
+	 */
+	public boolean remove(JobContract contract) {
+		for (int i = 0; i < size; i++) {
+			if (contracts[i] == contract) {
+				System.arraycopy(contracts, i + 1, contracts, i, size - i - 1);
+				contracts[--size] = null;
+				total -= contract.getPayCheck();
+				valid = Math.min(valid, i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the contract of the highest paid employee, the last one among
+	 * equals (see the order above).
+	 *
+	 * @return the removed contract
+	 */
+	public JobContract removeHighest() {
+		if (size == 0)
+			throw new NoSuchElementException();
+
+		JobContract contract = contracts[--size];
+		contracts[size] = null;
+		total -= contract.getPayCheck();
+		valid = Math.min(valid, size);
+		return contract;
+	}
+
+	public void clear() {
+		Arrays.fill(contracts, 0, size, null);
+		size = 0;
+		total = 0;
+		valid = 0;
+	}
+
+	/**
+	 * Restores the order and the totals after the pay checks of the contracts
+	 * were changed.
+	 */
+	public void update() {
+		// Stable: equal pay checks keep their order
+		Arrays.sort(contracts, 0, size, BY_PAY_CHECK);
+
+		total = 0;
+		for (int i = 0; i < size; i++)
+			total += contracts[i].getPayCheck();
+		valid = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the sum of all the pay checks
+	 */
+	public double getCosts() {
+		return total;
+	}
+
+	/**
+	 * @param reduction
+	 *            the number of highest paid employees left out
+	 * @return the sum of the pay checks of all but the {@code reduction}
+	 *         highest paid employees
+	 */
+	public double getCosts(long reduction) {
+		if (reduction <= 0)
+			return total;
+		if (reduction >= size)
+			return 0;
+
+		int remaining = (int) (size - reduction);
+		for (; valid < remaining; valid++)
+			costs[valid + 1] = costs[valid] + contracts[valid].getPayCheck();
+		return costs[remaining];
+	}
+
+	/**
+	 * Visits the contracts from the highest paid to the lowest paid, in the
+	 * reverse of the order above among equals.
+	 */
+	@Override
+	public Iterator<JobContract> iterator() {
+		return new Iterator<JobContract>() {
+			private int next = size - 1;
+
+			@Override
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			@Override
+			public JobContract next() {
+				if (next < 0)
+					throw new NoSuchElementException();
+				return contracts[next--];
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+}
@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package utilities;
+
+/**
+ * A small splittable pseudo-random generator (SplitMix64).<br>
+ * Every agent that needs randomness while running in parallel owns a stream
+ * obtained with {@link #split()} from a stream seeded with the run's seed, so
+ * that the numbers it draws do not depend on how the work is spread across
+ * threads.
+ *
+ */
+public final class RandomStream {
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private long seed;
+	private final long gamma;
+
+	public RandomStream(long seed) {
+		this(seed, GOLDEN_GAMMA);
+	}
+
+	public RandomStream(long seed, long gamma) {
+		this.seed = seed;
+		this.gamma = gamma;
+	}
+
+	/**
+	 * @return a new stream, independent from this one, whose sequence is fully
+	 *         determined by the current state of this stream.
+	 */
+	public RandomStream split() {
+		return new RandomStream(nextLong(), mixGamma(nextSeed()));
+	}
+
+	public long nextLong() {
+		return mix64(nextSeed());
+	}
+
+	/**
+	 * @return a uniformly distributed value in [0, 1)
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * @param bound
+	 *            the upper bound (exclusive), must be positive
+	 * @return a uniformly distributed value in [0, {@code bound})
+	 */
+	public int nextInt(int bound) {
+		int r = mix32(nextSeed());
+		int m = bound - 1;
+		if ((bound & m) == 0)
+			r &= m;
+		else {
+			for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = mix32(nextSeed()) >>> 1)
+				;
+		}
+		return r;
+	}
+
+	/**
+	 * @return the current state of the stream
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * @return the increment of the stream
+	 */
+	public long getGamma() {
+		return gamma;
+	}
+
+	private long nextSeed() {
+		return seed += gamma;
+	}
+
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private static int mix32(long z) {
+		z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+		return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+	}
+
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		int n = Long.bitCount(z ^ (z >>> 1));
+		return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+	}
+
+}
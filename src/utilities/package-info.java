@@ -1,8 +1,8 @@
-/**
- * 
- */
-/**
- * @author Diogo L. Costa
- *
- */
+/**
+ * 
+ */
+/**
+ * @author Diogo L. Costa
+ *
+ */
 package utilities;
\ No newline at end of file